@@ -31,6 +31,8 @@ public class Constants {
     public static final String CONNECTION_TEST_PASS = "PASS";
     public static final String CONNECTION_TEST_FAIL = "FAIL";
     public static final String CONNECTION_TEST_SLOW = "SLOW";
+    public static final String CONNECTION_TEST_CAPTIVE_PORTAL = "CAPTIVE_PORTAL";
+    public static final String CONNECTION_TEST_REDIRECT = "REDIRECT";
     public static final String DATA_STATE_CONNECTED = "CONNECTED";
 
     public enum ConnectionType {
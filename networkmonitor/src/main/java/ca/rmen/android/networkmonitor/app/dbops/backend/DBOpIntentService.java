@@ -54,6 +54,7 @@ import ca.rmen.android.networkmonitor.app.dbops.backend.export.GnuplotExport;
 import ca.rmen.android.networkmonitor.app.dbops.backend.export.HTMLExport;
 import ca.rmen.android.networkmonitor.app.dbops.backend.imp0rt.DBImport;
 import ca.rmen.android.networkmonitor.app.service.NetMonNotification;
+import ca.rmen.android.networkmonitor.app.service.journal.SampleJournalCompactor;
 
 public class DBOpIntentService extends JobIntentService {
 
@@ -184,7 +185,8 @@ public class DBOpIntentService extends JobIntentService {
             }
         });
 
-        // Do the db operation
+        // Do the db operation, on all the rows collected so far.
+        SampleJournalCompactor.flushPending();
         if (ACTION_COMPRESS.equals(action)) {
             handleActionCompress();
             NetMonBus.post(new NetMonBus.DBOperationEnded(true));
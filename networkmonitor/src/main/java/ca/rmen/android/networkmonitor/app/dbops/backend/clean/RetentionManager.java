@@ -0,0 +1,127 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.dbops.backend.clean;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import org.greenrobot.eventbus.Subscribe;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.bus.NetMonBus;
+import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+
+/**
+ * Keeps the number of rows in the database close to the limit set by the user, without purging after every insert.
+ * <p>
+ * We keep a running count of the rows in the DB, and only run a {@link DBPurge} once the count exceeds the limit
+ * by a margin, so the DB may temporarily contain a few more rows than the user asked for.
+ * When the monitoring stops, we trim the DB down to the exact limit.
+ */
+public class RetentionManager {
+    private static final String TAG = Constants.TAG + RetentionManager.class.getSimpleName();
+
+    // We allow the DB to grow by this fraction of the limit before purging...
+    private static final int SLACK_DIVISOR = 10;
+    // ... but by at least this many rows.
+    private static final int MIN_SLACK = 100;
+    private static final int UNKNOWN = -1;
+
+    private final Context mContext;
+    private int mRowCount = UNKNOWN;
+
+    public RetentionManager(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    public void onCreate() {
+        Log.v(TAG, "onCreate");
+        NetMonBus.getBus().register(this);
+    }
+
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        NetMonBus.getBus().unregister(this);
+    }
+
+    /**
+     * Call this after inserting rows into the DB.  Purges old rows if the DB has grown too far beyond the limit.
+     */
+    public synchronized void onRowsInserted(int count) {
+        int rowsToKeep = NetMonPreferences.getInstance(mContext).getDBRecordCount();
+        if (rowsToKeep < 0) {
+            // No limit: no need to even keep track of the count.
+            mRowCount = UNKNOWN;
+            return;
+        }
+        if (mRowCount == UNKNOWN) mRowCount = readRowCount();
+        else mRowCount += count;
+        if (mRowCount > rowsToKeep + Math.max(rowsToKeep / SLACK_DIVISOR, MIN_SLACK)) purge(rowsToKeep);
+    }
+
+    /**
+     * Trim the DB down to the exact limit, if it's above it.
+     */
+    public synchronized void trim() {
+        int rowsToKeep = NetMonPreferences.getInstance(mContext).getDBRecordCount();
+        if (rowsToKeep < 0) return;
+        if (mRowCount == UNKNOWN) mRowCount = readRowCount();
+        if (mRowCount > rowsToKeep) purge(rowsToKeep);
+    }
+
+    /**
+     * Other components may have deleted or imported rows: we'll need to count them again.
+     */
+    @Subscribe
+    public void onDBOperationEnded(NetMonBus.DBOperationEnded event) {
+        Log.v(TAG, "onDBOperationEnded: " + event);
+        if (event.isDataChanged) {
+            synchronized (this) {
+                mRowCount = UNKNOWN;
+            }
+        }
+    }
+
+    private void purge(int rowsToKeep) {
+        Log.v(TAG, "purge: " + mRowCount + " rows in the DB, keeping " + rowsToKeep);
+        new DBPurge(mContext, rowsToKeep).execute(null);
+        mRowCount = UNKNOWN;
+        // Like the purge started from the settings, let the components which keep state about the rows know they're gone.
+        NetMonBus.post(new NetMonBus.DBOperationEnded(true));
+    }
+
+    private int readRowCount() {
+        Cursor cursor = mContext.getContentResolver().query(NetMonColumns.CONTENT_URI, new String[]{"COUNT(*)"}, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) return cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+}
@@ -99,7 +99,9 @@ public class ExcelExport extends TableFileExport {
             CellFormat cellFormat = null;
             if (Constants.CONNECTION_TEST_PASS.equals(cellValues[i])) cellFormat = mGreenFormat;
             else if (Constants.CONNECTION_TEST_FAIL.equals(cellValues[i])) cellFormat = mRedFormat;
-            else if (Constants.CONNECTION_TEST_SLOW.equals(cellValues[i])) cellFormat = mAmberFormat;
+            else if (Constants.CONNECTION_TEST_SLOW.equals(cellValues[i])
+                    || Constants.CONNECTION_TEST_CAPTIVE_PORTAL.equals(cellValues[i])
+                    || Constants.CONNECTION_TEST_REDIRECT.equals(cellValues[i])) cellFormat = mAmberFormat;
             insertCell(cellValues[i], rowNumber + 1, i, cellFormat);
         }
         mRowCount++;
@@ -77,7 +77,8 @@ public class FormatterFactory {
             String result;
             String columnName = c.getColumnName(columnIndex);
             // Format timestamps
-            if (NetMonColumns.TIMESTAMP.equals(columnName)) {
+            if (NetMonColumns.TIMESTAMP.equals(columnName)
+                    || (NetMonColumns.OUTAGE_START.equals(columnName) || NetMonColumns.OUTAGE_END.equals(columnName)) && !c.isNull(columnIndex)) {
                 long timestamp = c.getLong(columnIndex);
                 Date date = new Date(timestamp);
                 result = mDateFormat.format(date);
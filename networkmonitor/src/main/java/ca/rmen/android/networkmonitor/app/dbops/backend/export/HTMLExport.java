@@ -165,7 +165,9 @@ public class HTMLExport extends TableFileExport {
             // Highlight PASS in green and FAIL in red.
             if (Constants.CONNECTION_TEST_FAIL.equals(cellValue)) tdClass = "fail";
             else if (Constants.CONNECTION_TEST_PASS.equals(cellValue)) tdClass = "pass";
-            else if (Constants.CONNECTION_TEST_SLOW.equals(cellValue)) tdClass = "slow";
+            else if (Constants.CONNECTION_TEST_SLOW.equals(cellValue)
+                    || Constants.CONNECTION_TEST_CAPTIVE_PORTAL.equals(cellValue)
+                    || Constants.CONNECTION_TEST_REDIRECT.equals(cellValue)) tdClass = "slow";
             mPrintWriter.println("    <td class=\"" + tdClass + "\">" + cellValue + "</td>");
         }
         mPrintWriter.println("  </tr>");
@@ -24,11 +24,16 @@
 package ca.rmen.android.networkmonitor.app.email;
 
 import android.content.Context;
+import android.os.PowerManager;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.File;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import ca.rmen.android.networkmonitor.Constants;
 import ca.rmen.android.networkmonitor.R;
@@ -42,16 +47,23 @@ import ca.rmen.android.networkmonitor.app.dbops.backend.export.SummaryExport;
 import ca.rmen.android.networkmonitor.app.email.EmailPreferences.EmailConfig;
 import ca.rmen.android.networkmonitor.app.email.EmailPreferences.EmailSecurity;
 import ca.rmen.android.networkmonitor.app.service.NetMonNotification;
+import ca.rmen.android.networkmonitor.app.service.journal.SampleJournalCompactor;
 import java8.util.stream.Collectors;
 import java8.util.stream.StreamSupport;
 
 /**
  * Sends a mail to a recipient or recipients, including (or not) some file attachments with exports of the log.
+ * <p>
+ * The report is built and sent on a background thread, so that the monitoring isn't held up by the exports or the smtp server.
  */
 public class ReportEmailer {
 
     private static final String TAG = Constants.TAG + ReportEmailer.class.getSimpleName();
+    // Large exports over a slow connection can take a while, but we don't want to keep the device awake forever.
+    private static final long SEND_WAKELOCK_TIMEOUT_MS = 10 * 60 * 1000;
     private final Context mContext;
+    private final ExecutorService mExecutorService = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mIsSending = new AtomicBoolean(false);
 
     public ReportEmailer(Context context) {
         Log.v(TAG, "Constructor");
@@ -59,19 +71,56 @@ public class ReportEmailer {
     }
 
     /**
-     * Send the e-mail report.
+     * Send the e-mail report in the background, if it's time to send one. Returns immediately.
      */
-    public synchronized void send() {
+    public void send() {
         Log.v(TAG, "send");
-        if (shouldSendMail()) {
+        if (!shouldSendMail()) {
+            Log.v(TAG, "Won't send mail");
+            return;
+        }
+        // A report from a previous call may still be in progress.
+        if (!mIsSending.compareAndSet(false, true)) {
+            Log.v(TAG, "Already sending mail");
+            return;
+        }
+        try {
+            mExecutorService.execute(this::sendNow);
+        } catch (RejectedExecutionException e) {
+            Log.v(TAG, "Won't send mail: we've been shut down");
+            mIsSending.set(false);
+        }
+    }
+
+    /**
+     * Stop accepting new reports. A report which is currently being sent is allowed to finish.
+     */
+    public void shutdown() {
+        Log.v(TAG, "shutdown");
+        mExecutorService.shutdown();
+    }
+
+    private void sendNow() {
+        Log.v(TAG, "sendNow");
+        // Keep the cpu running while we export the log and talk to the smtp server.
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = null;
+        if (powerManager != null) {
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            wakeLock.acquire(SEND_WAKELOCK_TIMEOUT_MS);
+        }
+        try {
             final EmailConfig emailConfig = EmailPreferences.getInstance(mContext).getEmailConfig();
             if (emailConfig.isValid()) {
                 sendEmail(emailConfig);
             } else {
                 Log.w(TAG, "Cannot send mail with the current email settings: " + emailConfig);
             }
-        } else {
-            Log.v(TAG, "Won't send mail");
+        } catch (Throwable t) {
+            Log.e(TAG, "Could not send mail " + t.getMessage(), t);
+        } finally {
+            mIsSending.set(false);
+            if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
         }
     }
 
@@ -96,6 +145,8 @@ public class ReportEmailer {
      */
     private void sendEmail(final EmailConfig emailConfig) {
         Log.v(TAG, "sendEmail: emailConfig = " + emailConfig);
+        // Include the rows which the service hasn't written to the DB yet.
+        SampleJournalCompactor.flushPending();
         // Prepare the file attachments before we start to send the e-mail.
         Set<File> attachments = StreamSupport.stream(emailConfig.reportFormats)
                 .map(this::createAttachment)
@@ -70,6 +70,7 @@ import ca.rmen.android.networkmonitor.app.prefs.FilterColumnActivity;
 import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
 import ca.rmen.android.networkmonitor.app.prefs.SelectFieldsActivity;
 import ca.rmen.android.networkmonitor.app.prefs.SortPreferences;
+import ca.rmen.android.networkmonitor.app.service.journal.SampleJournalCompactor;
 
 public class LogActivity extends AppCompatActivity implements DialogButtonListener, ChoiceDialogFragment.DialogItemListener {
     private static final String TAG = Constants.TAG + LogActivity.class.getSimpleName();
@@ -210,6 +211,8 @@ public class LogActivity extends AppCompatActivity implements DialogButtonListen
 
         AsyncTask.execute(() -> {
             Log.v(TAG, "loadHTMLFile:doInBackground");
+            // Show the rows which the service hasn't written to the DB yet.
+            SampleJournalCompactor.flushPending();
             // Export the DB to the HTML file.
             HTMLExport htmlExport = new HTMLExport(LogActivity.this, false, fixedTableHeight);
             int recordCount = NetMonPreferences.getInstance(LogActivity.this).getFilterRecordCount();
@@ -89,11 +89,13 @@ public class AdvancedPreferencesActivity extends AppCompatActivity implements Co
                 commit();
         getSupportFragmentManager().executePendingTransactions();
         updatePreferenceSummary(NetMonPreferences.PREF_TEST_SERVER, R.string.pref_summary_test_server);
+        updatePreferenceSummary(NetMonPreferences.PREF_HTTP_TEST_URL, R.string.pref_summary_http_test_url);
         updatePreferenceSummary(NetMonPreferences.PREF_NOTIFICATION_RINGTONE, R.string.pref_summary_notification_ringtone);
         Preference enableConnectionTest = mPreferenceFragment.findPreference(NetMonPreferences.PREF_ENABLE_CONNECTION_TEST);
         NetMonPreferences prefs = NetMonPreferences.getInstance(this);
         if (prefs.isFastPollingEnabled()) enableConnectionTest.setEnabled(false);
         mPreferenceFragment.findPreference(NetMonPreferences.PREF_TEST_SERVER).setOnPreferenceChangeListener(mEnsureNonEmptyPreferenceChangeListener);
+        mPreferenceFragment.findPreference(NetMonPreferences.PREF_HTTP_TEST_URL).setOnPreferenceChangeListener(mEnsureNonEmptyPreferenceChangeListener);
         setOnPreferenceClickListeners(PREF_IMPORT_DB, PREF_COMPRESS, NetMonPreferences.PREF_NOTIFICATION_RINGTONE, PREF_IMPORT_SETTINGS, PREF_EXPORT_SETTINGS);
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
             Preference notificationPriorityPreference = mPreferenceFragment.findPreference(NetMonPreferences.PREF_NOTIFICATION_PRIORITY);
@@ -129,6 +131,8 @@ public class AdvancedPreferencesActivity extends AppCompatActivity implements Co
         Log.v(TAG, "onSharedPreferenceChanged: key = " + key);
         if (NetMonPreferences.PREF_TEST_SERVER.equals(key)) {
             updatePreferenceSummary(key, R.string.pref_summary_test_server);
+        } else if (NetMonPreferences.PREF_HTTP_TEST_URL.equals(key)) {
+            updatePreferenceSummary(key, R.string.pref_summary_http_test_url);
         } else if (NetMonPreferences.PREF_NOTIFICATION_RINGTONE.equals(key)) {
             updatePreferenceSummary(key, R.string.pref_summary_notification_ringtone);
         } else if (NetMonPreferences.PREF_NOTIFICATION_ENABLED.equals(key)) {
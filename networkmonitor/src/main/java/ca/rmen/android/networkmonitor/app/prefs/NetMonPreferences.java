@@ -40,8 +40,12 @@ import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 import ca.rmen.android.networkmonitor.R;
 import ca.rmen.android.networkmonitor.app.prefs.SortPreferences.SortOrder;
+import ca.rmen.android.networkmonitor.app.service.scheduler.AdaptiveScheduler;
+import ca.rmen.android.networkmonitor.app.service.scheduler.AlignedScheduler;
 import ca.rmen.android.networkmonitor.app.service.scheduler.AlarmManagerScheduler;
 import ca.rmen.android.networkmonitor.app.service.scheduler.ExecutorServiceScheduler;
+import ca.rmen.android.networkmonitor.app.service.scheduler.HybridScheduler;
+import ca.rmen.android.networkmonitor.app.service.scheduler.JobSchedulerScheduler;
 import ca.rmen.android.networkmonitor.app.service.scheduler.NetworkChangeScheduler;
 import ca.rmen.android.networkmonitor.app.service.scheduler.Scheduler;
 import ca.rmen.android.networkmonitor.provider.NetMonColumns;
@@ -55,13 +59,27 @@ public class NetMonPreferences {
         DAY, NIGHT, AUTO
     }
 
+    /**
+     * What the HTTP connection test requests: the home page of the test server, or a URL which returns an empty 204 response.
+     */
+    public enum HttpTestMode {
+        FULL_PAGE, NO_CONTENT
+    }
+
     static final String PREF_TEST_SERVER = "PREF_TEST_SERVER";
+    private static final String PREF_PROBE_TARGETS = "PREF_PROBE_TARGETS";
+    private static final String PREF_UDP_ECHO_SERVER = "PREF_UDP_ECHO_SERVER";
+    private static final String PREF_HTTP_TEST_MODE = "PREF_HTTP_TEST_MODE";
+    static final String PREF_HTTP_TEST_URL = "PREF_HTTP_TEST_URL";
+    private static final String PREF_UDP_BURST_COUNT = "PREF_UDP_BURST_COUNT";
     public static final int PREF_MIN_POLLING_INTERVAL = 10000;
     public static final String PREF_UPDATE_INTERVAL = "PREF_UPDATE_INTERVAL";
     public static final int PREF_UPDATE_ON_NETWORK_CHANGE = -1;
     public static final String PREF_SERVICE_ENABLED = "PREF_SERVICE_ENABLED";
     public static final boolean PREF_SERVICE_ENABLED_DEFAULT = false;
     public static final String PREF_SCHEDULER = "PREF_SCHEDULER";
+    public static final String PREF_ADAPTIVE_MIN_INTERVAL = "PREF_ADAPTIVE_MIN_INTERVAL";
+    public static final String PREF_ADAPTIVE_MAX_INTERVAL = "PREF_ADAPTIVE_MAX_INTERVAL";
     public static final String PREF_SORT_ORDER = "PREF_SORT_ORDER";
     public static final String PREF_SORT_COLUMN_NAME = "PREF_SORT_COLUMN_NAME";
 
@@ -92,7 +110,13 @@ public class NetMonPreferences {
 
     private static final String PREF_TEST_SERVER_DEFAULT = "google.com";
     private static final String PREF_TEST_SERVER_LEGACY = "216.58.208.206";
+    private static final String PREF_PROBE_TARGETS_DEFAULT = "";
+    private static final String PREF_UDP_ECHO_SERVER_DEFAULT = "";
+    private static final String PREF_HTTP_TEST_URL_DEFAULT = "http://connectivitycheck.gstatic.com/generate_204";
+    private static final String PREF_UDP_BURST_COUNT_DEFAULT = "20";
     private static final String PREF_WAKE_INTERVAL_DEFAULT = "0";
+    private static final String PREF_ADAPTIVE_MIN_INTERVAL_DEFAULT = "10000";
+    private static final String PREF_ADAPTIVE_MAX_INTERVAL_DEFAULT = "300000";
     private static final String PREF_SCHEDULER_DEFAULT = ExecutorServiceScheduler.class.getSimpleName();
     private static final String PREF_SELECTED_COLUMNS = "PREF_SELECTED_COLUMNS";
     private static final String PREF_SORT_COLUMN_NAME_DEFAULT = NetMonColumns.TIMESTAMP;
@@ -134,6 +158,44 @@ public class NetMonPreferences {
         return mSharedPrefs.getString(NetMonPreferences.PREF_TEST_SERVER, NetMonPreferences.PREF_TEST_SERVER_DEFAULT);
     }
 
+    /**
+     * @return the additional host:port targets to probe, separated by commas.
+     */
+    public String getProbeTargets() {
+        return mSharedPrefs.getString(NetMonPreferences.PREF_PROBE_TARGETS, NetMonPreferences.PREF_PROBE_TARGETS_DEFAULT);
+    }
+
+    public HttpTestMode getHttpTestMode() {
+        String modeStr = mSharedPrefs.getString(PREF_HTTP_TEST_MODE, HttpTestMode.FULL_PAGE.name());
+        try {
+            return HttpTestMode.valueOf(modeStr);
+        } catch (IllegalArgumentException e) {
+            // The value may have been saved by another version of the app.
+            return HttpTestMode.FULL_PAGE;
+        }
+    }
+
+    /**
+     * @return the URL requested by the HTTP connection test, in the {@link HttpTestMode#NO_CONTENT} mode.
+     */
+    public String getHttpTestUrl() {
+        return mSharedPrefs.getString(NetMonPreferences.PREF_HTTP_TEST_URL, NetMonPreferences.PREF_HTTP_TEST_URL_DEFAULT);
+    }
+
+    /**
+     * @return the host:port of the UDP echo server, or an empty string to disable the UDP test.
+     */
+    public String getUdpEchoServer() {
+        return mSharedPrefs.getString(NetMonPreferences.PREF_UDP_ECHO_SERVER, NetMonPreferences.PREF_UDP_ECHO_SERVER_DEFAULT);
+    }
+
+    /**
+     * @return the number of packets to send to the UDP echo server at each update.
+     */
+    public int getUdpBurstCount() {
+        return getIntPreference(NetMonPreferences.PREF_UDP_BURST_COUNT, NetMonPreferences.PREF_UDP_BURST_COUNT_DEFAULT);
+    }
+
     /**
      * Use the default test server.
      */
@@ -224,6 +286,20 @@ public class NetMonPreferences {
         setBooleanPreference(NetMonPreferences.PREF_ENABLE_CONNECTION_TEST, false);
     }
 
+    /**
+     * @return the shortest interval, in millis, between log entries with the {@link AdaptiveScheduler}.
+     */
+    public int getAdaptiveMinInterval() {
+        return getIntPreference(NetMonPreferences.PREF_ADAPTIVE_MIN_INTERVAL, NetMonPreferences.PREF_ADAPTIVE_MIN_INTERVAL_DEFAULT);
+    }
+
+    /**
+     * @return the longest interval, in millis, between log entries with the {@link AdaptiveScheduler}.
+     */
+    public int getAdaptiveMaxInterval() {
+        return getIntPreference(NetMonPreferences.PREF_ADAPTIVE_MAX_INTERVAL, NetMonPreferences.PREF_ADAPTIVE_MAX_INTERVAL_DEFAULT);
+    }
+
     /**
      * @return the implementation of the {@link Scheduler} interface which schedules each logging of data.
      */
@@ -232,6 +308,12 @@ public class NetMonPreferences {
         if (updateInterval == PREF_UPDATE_ON_NETWORK_CHANGE) return NetworkChangeScheduler.class;
         String schedulerPref = mSharedPrefs.getString(NetMonPreferences.PREF_SCHEDULER, NetMonPreferences.PREF_SCHEDULER_DEFAULT);
         if (schedulerPref.equals(AlarmManagerScheduler.class.getSimpleName())) return AlarmManagerScheduler.class;
+        else if (schedulerPref.equals(AdaptiveScheduler.class.getSimpleName())) return AdaptiveScheduler.class;
+        else if (schedulerPref.equals(AlignedScheduler.class.getSimpleName())) return AlignedScheduler.class;
+        else if (schedulerPref.equals(HybridScheduler.class.getSimpleName())) return HybridScheduler.class;
+        else if (schedulerPref.equals(JobSchedulerScheduler.class.getSimpleName()))
+            // The JobScheduler is only available from Lollipop.
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP ? JobSchedulerScheduler.class : AlarmManagerScheduler.class;
         else
             return ExecutorServiceScheduler.class;
     }
@@ -39,6 +39,8 @@ import android.view.View;
 
 import com.google.android.material.snackbar.Snackbar;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -61,7 +63,9 @@ public class SelectFieldsActivity extends AppCompatActivity
     private static final String TAG = Constants.TAG + SelectFieldsActivity.class.getSimpleName();
     private static final int ACTION_REQUEST_PHONE_STATE_PERMISSION = 1;
     private static final int ACTION_REQUEST_USAGE_PERMISSION = 2;
+    private static final int ACTION_REQUEST_LOCATION_PERMISSION = 3;
     private static final int PERMISSION_PHONE_STATE_REQUEST_CODE = 9401;
+    private static final int PERMISSION_LOCATION_REQUEST_CODE = 9402;
     private SelectedFieldsAdapter mSelectFieldsAdapter;
     private SelectFieldsBinding mBinding;
 
@@ -148,15 +152,37 @@ public class SelectFieldsActivity extends AppCompatActivity
             // M dangerous permissions.
             // Then we need the PACKAGE_USAGE_STATS permission, which we can only obtain by asking
             // the user to grant us access in a specific system settings screen (Security -> Data Usage)
+            // We also need the location permission for the location and the cell identity.
+            // If we need both, we ask for the location permission first, and for the others once the user has answered.
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                if (selectedColumns.contains(NetMonColumns.MOST_CONSUMING_APP_NAME)
-                        || selectedColumns.contains(NetMonColumns.MOST_CONSUMING_APP_BYTES)) {
+                if (isLocationColumnSelected() && !PermissionUtil.hasLocationPermission(SelectFieldsActivity.this)) {
+                    requestLocationPermission();
+                } else if (isDataUsageColumnSelected()) {
                     requestPhoneStatePermission();
                 }
             }
         }
     };
 
+    private boolean isDataUsageColumnSelected() {
+        List<String> selectedColumns = mSelectFieldsAdapter.getSelectedColumns();
+        return selectedColumns.contains(NetMonColumns.MOST_CONSUMING_APP_NAME)
+                || selectedColumns.contains(NetMonColumns.MOST_CONSUMING_APP_BYTES);
+    }
+
+    private boolean isLocationColumnSelected() {
+        List<String> selectedColumns = mSelectFieldsAdapter.getSelectedColumns();
+        return !Collections.disjoint(selectedColumns, Arrays.asList(getResources().getStringArray(R.array.location_columns)));
+    }
+
+    /**
+     * Call this once the user has answered the location permission request.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private void onLocationPermissionAnswered() {
+        if (isDataUsageColumnSelected()) requestPhoneStatePermission();
+    }
+
 
     @TargetApi(Build.VERSION_CODES.M)
     private void requestPhoneStatePermission() {
@@ -172,6 +198,18 @@ public class SelectFieldsActivity extends AppCompatActivity
         }
     }
 
+    @TargetApi(Build.VERSION_CODES.M)
+    private void requestLocationPermission() {
+        if (!PermissionUtil.hasLocationPermission(this)) {
+            DialogFragmentFactory.showConfirmDialog(
+                    this,
+                    getString(R.string.permission_location_permission_title),
+                    TextUtil.fromHtml(getString(R.string.permission_location_message)),
+                    ACTION_REQUEST_LOCATION_PERMISSION,
+                    null);
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.M)
     void requestUsagePermission() {
         Log.v(TAG, "Read phone state permission granted");
@@ -204,6 +242,11 @@ public class SelectFieldsActivity extends AppCompatActivity
             } else {
                 onPermissionsDenied();
             }
+        } else if (PERMISSION_LOCATION_REQUEST_CODE == requestCode) {
+            if (!PermissionUtil.areAllGranted(grantResults)) {
+                Snackbar.make(getWindow().getDecorView().getRootView(), R.string.permission_location_denied, Snackbar.LENGTH_LONG).show();
+            }
+            onLocationPermissionAnswered();
         }
     }
 
@@ -214,12 +257,16 @@ public class SelectFieldsActivity extends AppCompatActivity
                 ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.READ_PHONE_STATE}, PERMISSION_PHONE_STATE_REQUEST_CODE);
             } else if (actionId == ACTION_REQUEST_USAGE_PERMISSION) {
                 startActivity(new Intent(Settings.ACTION_USAGE_ACCESS_SETTINGS));
+            } else if (actionId == ACTION_REQUEST_LOCATION_PERMISSION) {
+                ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, PERMISSION_LOCATION_REQUEST_CODE);
             }
         }
     }
 
     @Override
     public void onCancelClicked(int actionId, Bundle extras) {
-        Snackbar.make(getWindow().getDecorView().getRootView(), R.string.permission_data_usage_denied, Snackbar.LENGTH_LONG).show();
+        int messageId = actionId == ACTION_REQUEST_LOCATION_PERMISSION ? R.string.permission_location_denied : R.string.permission_data_usage_denied;
+        Snackbar.make(getWindow().getDecorView().getRootView(), messageId, Snackbar.LENGTH_LONG).show();
+        if (actionId == ACTION_REQUEST_LOCATION_PERMISSION && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) onLocationPermissionAnswered();
     }
 }
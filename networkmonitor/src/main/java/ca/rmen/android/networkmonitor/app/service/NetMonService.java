@@ -38,12 +38,14 @@ import android.util.Log;
 
 import androidx.core.content.ContextCompat;
 import ca.rmen.android.networkmonitor.Constants;
-import ca.rmen.android.networkmonitor.app.dbops.backend.clean.DBPurge;
 import ca.rmen.android.networkmonitor.app.email.ReportEmailer;
 import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
 import ca.rmen.android.networkmonitor.app.prefs.PreferencesMigrator;
 import ca.rmen.android.networkmonitor.app.service.datasources.NetMonDataSources;
+import ca.rmen.android.networkmonitor.app.service.journal.SampleJournalCompactor;
+import ca.rmen.android.networkmonitor.app.service.scheduler.SampleListener;
 import ca.rmen.android.networkmonitor.app.service.scheduler.Scheduler;
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestHistory;
 import ca.rmen.android.networkmonitor.provider.NetMonColumns;
 
 /**
@@ -58,6 +60,7 @@ public class NetMonService extends Service {
     private long mLastWakeUp = 0;
     private NetMonDataSources mDataSources;
     private ReportEmailer mReportEmailer;
+    private SampleJournalCompactor mSampleJournalCompactor;
     private Scheduler mScheduler;
 
     public static void start(Context context) {
@@ -86,6 +89,10 @@ public class NetMonService extends Service {
 
         mReportEmailer = new ReportEmailer(this);
 
+        // Replay any rows which were collected, but not written to the DB, the last time we ran.
+        mSampleJournalCompactor = new SampleJournalCompactor(this);
+        mSampleJournalCompactor.onCreate();
+
         PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(mSharedPreferenceListener);
 
         scheduleTests();
@@ -104,6 +111,8 @@ public class NetMonService extends Service {
         mDataSources.onDestroy();
         NetMonNotification.dismissNotifications(this);
         mScheduler.onDestroy();
+        mReportEmailer.shutdown();
+        mSampleJournalCompactor.onDestroy();
         super.onDestroy();
     }
 
@@ -167,10 +176,12 @@ public class NetMonService extends Service {
                 ContentValues values = new ContentValues();
                 values.put(NetMonColumns.TIMESTAMP, System.currentTimeMillis());
                 values.putAll(mDataSources.getContentValues());
-                getContentResolver().insert(NetMonColumns.CONTENT_URI, values);
-                new DBPurge(NetMonService.this, prefs.getDBRecordCount()).execute(null);
+                if (mScheduler instanceof SampleListener) ((SampleListener) mScheduler).onSampleCollected(values);
+                SpeedTestHistory.getInstance(NetMonService.this).onSampleCollected(values);
+                // The row is journaled now, and written to the DB (and purged) in a later batch.
+                mSampleJournalCompactor.insert(values, mDataSources.getChildRows());
 
-                // Send mail
+                // Send mail, if it's time to.  This doesn't wait for the mail to be sent.
                 mReportEmailer.send();
 
             } catch (Throwable t) {
@@ -192,7 +203,8 @@ public class NetMonService extends Service {
             }
         }
         // Reschedule our task if the user changed the interval
-        else if (NetMonPreferences.PREF_UPDATE_INTERVAL.equals(key) || NetMonPreferences.PREF_SCHEDULER.equals(key)) {
+        else if (NetMonPreferences.PREF_UPDATE_INTERVAL.equals(key) || NetMonPreferences.PREF_SCHEDULER.equals(key)
+                || NetMonPreferences.PREF_ADAPTIVE_MIN_INTERVAL.equals(key) || NetMonPreferences.PREF_ADAPTIVE_MAX_INTERVAL.equals(key)) {
             scheduleTests();
         }
         // Update the notification if the priority changed
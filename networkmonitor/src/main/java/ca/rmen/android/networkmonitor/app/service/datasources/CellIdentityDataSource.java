@@ -0,0 +1,258 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.datasources;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.telephony.CellIdentityCdma;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellLocation;
+import android.telephony.PhoneStateListener;
+import android.telephony.TelephonyManager;
+import android.telephony.cdma.CdmaCellLocation;
+import android.telephony.gsm.GsmCellLocation;
+import android.util.Log;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+import ca.rmen.android.networkmonitor.util.PermissionUtil;
+
+/**
+ * Retrieves the identity of the cell the device is registered on.
+ * <p>
+ * The serving cell is cached from the telephony callbacks, so collecting a row doesn't query the modem.
+ * If we haven't heard from the modem for a while, we ask it for an update, at most once per {@link #MIN_REFRESH_INTERVAL_MS}.
+ * <p>
+ * The cell info requires the location permission. If it isn't granted, this data source retrieves nothing until it is.
+ */
+public class CellIdentityDataSource implements NetMonDataSource {
+    private static final String TAG = Constants.TAG + CellIdentityDataSource.class.getSimpleName();
+
+    private static final long MIN_REFRESH_INTERVAL_MS = 30000;
+    // Returned by the CellIdentity getters when a value is unknown.
+    private static final int UNAVAILABLE = Integer.MAX_VALUE;
+
+    private Context mContext;
+    private TelephonyManager mTelephonyManager;
+    private boolean mIsListening;
+    private volatile ContentValues mLastCellIdentity = new ContentValues();
+    private volatile long mLastUpdateTime;
+    private volatile long mLastCellInfoTime;
+    private long mLastRefreshRequestTime;
+
+    public CellIdentityDataSource() {}
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+        mTelephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        startListening();
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        if (mTelephonyManager != null && mIsListening) mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
+        mIsListening = false;
+    }
+
+    /**
+     * @return a ContentValues with the GSM/UMTS, LTE or CDMA identifiers of the serving cell. Only the identifiers for the current
+     *         type of cell are present.
+     */
+    @Override
+    public ContentValues getContentValues() {
+        Log.v(TAG, "getContentValues");
+        // The user may have granted the permission since we were created.
+        if (!mIsListening) startListening();
+        if (!mIsListening) return new ContentValues();
+        long now = SystemClock.elapsedRealtime();
+        if (now - mLastUpdateTime > MIN_REFRESH_INTERVAL_MS && now - mLastRefreshRequestTime > MIN_REFRESH_INTERVAL_MS) {
+            mLastRefreshRequestTime = now;
+            requestRefresh();
+        }
+        return new ContentValues(mLastCellIdentity);
+    }
+
+    private void startListening() {
+        if (mTelephonyManager == null || !PermissionUtil.hasLocationPermission(mContext)) return;
+        int events = PhoneStateListener.LISTEN_CELL_LOCATION;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) events |= PhoneStateListener.LISTEN_CELL_INFO;
+        try {
+            mTelephonyManager.listen(mPhoneStateListener, events);
+            mIsListening = true;
+        } catch (SecurityException e) {
+            Log.v(TAG, "startListening: not allowed to listen to cell info: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ask the modem for the current cell info.  Before Q, there's no asynchronous api, so we query the info directly.
+     */
+    private void requestRefresh() {
+        Log.v(TAG, "requestRefresh");
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                requestCellInfoUpdateApi29();
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                onCellInfo(mTelephonyManager.getAllCellInfo());
+            } else {
+                onCellLocation(mTelephonyManager.getCellLocation());
+            }
+        } catch (SecurityException e) {
+            Log.v(TAG, "requestRefresh: not allowed to read cell info: " + e.getMessage(), e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private void requestCellInfoUpdateApi29() {
+        mTelephonyManager.requestCellInfoUpdate(Runnable::run, new TelephonyManager.CellInfoCallback() {
+            @Override
+            public void onCellInfo(@NonNull List<CellInfo> cellInfo) {
+                CellIdentityDataSource.this.onCellInfo(cellInfo);
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void onCellInfo(List<CellInfo> cellInfos) {
+        // Some devices don't report cell info at all: we rely on the cell location callback for those.
+        if (cellInfos == null) return;
+        for (CellInfo cellInfo : cellInfos) {
+            if (!cellInfo.isRegistered()) continue;
+            ContentValues values = new ContentValues();
+            if (cellInfo instanceof CellInfoGsm) {
+                CellIdentityGsm identity = ((CellInfoGsm) cellInfo).getCellIdentity();
+                putGsmCellId(values, identity.getLac(), identity.getCid(), UNAVAILABLE);
+            } else if (cellInfo instanceof CellInfoLte) {
+                putLteCellId(values, ((CellInfoLte) cellInfo).getCellIdentity());
+            } else if (cellInfo instanceof CellInfoCdma) {
+                CellIdentityCdma identity = ((CellInfoCdma) cellInfo).getCellIdentity();
+                putCdmaCellId(values, identity.getBasestationId(), identity.getLatitude(), identity.getLongitude(), identity.getNetworkId(), identity.getSystemId());
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && cellInfo instanceof CellInfoWcdma) {
+                CellIdentityWcdma identity = ((CellInfoWcdma) cellInfo).getCellIdentity();
+                putGsmCellId(values, identity.getLac(), identity.getCid(), identity.getPsc());
+            } else {
+                // A newer technology (NR, TD-SCDMA) which we have no columns for.
+                continue;
+            }
+            mLastCellInfoTime = SystemClock.elapsedRealtime();
+            update(values);
+            return;
+        }
+    }
+
+    private void onCellLocation(CellLocation cellLocation) {
+        ContentValues values = new ContentValues();
+        if (cellLocation instanceof GsmCellLocation) {
+            GsmCellLocation gsmCellLocation = (GsmCellLocation) cellLocation;
+            putGsmCellId(values, gsmCellLocation.getLac(), gsmCellLocation.getCid(), gsmCellLocation.getPsc());
+        } else if (cellLocation instanceof CdmaCellLocation) {
+            CdmaCellLocation cdmaCellLocation = (CdmaCellLocation) cellLocation;
+            putCdmaCellId(values, cdmaCellLocation.getBaseStationId(), cdmaCellLocation.getBaseStationLatitude(), cdmaCellLocation.getBaseStationLongitude(),
+                    cdmaCellLocation.getNetworkId(), cdmaCellLocation.getSystemId());
+        } else {
+            return;
+        }
+        update(values);
+    }
+
+    private void update(ContentValues values) {
+        Log.v(TAG, "update: " + values);
+        mLastCellIdentity = values;
+        mLastUpdateTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * For UMTS cells, the cell id is 28 bits: the 12 upper bits are the RNC, and the 16 lower bits are the "short" cell id.
+     */
+    private static void putGsmCellId(ContentValues values, int lac, int cid, int psc) {
+        putIfValid(values, NetMonColumns.GSM_CELL_LAC, lac);
+        if (isValid(cid)) {
+            values.put(NetMonColumns.GSM_FULL_CELL_ID, cid);
+            values.put(NetMonColumns.GSM_SHORT_CELL_ID, cid & 0xFFFF);
+            if (cid > 0xFFFF) values.put(NetMonColumns.GSM_RNC, (cid >> 16) & 0xFFFF);
+        }
+        putIfValid(values, NetMonColumns.GSM_CELL_PSC, psc);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static void putLteCellId(ContentValues values, CellIdentityLte identity) {
+        putIfValid(values, NetMonColumns.LTE_CELL_CI, identity.getCi());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) putIfValid(values, NetMonColumns.LTE_CELL_EARFCN, identity.getEarfcn());
+        putIfValid(values, NetMonColumns.LTE_CELL_PCI, identity.getPci());
+        putIfValid(values, NetMonColumns.LTE_CELL_TAC, identity.getTac());
+    }
+
+    private static void putCdmaCellId(ContentValues values, int baseStationId, int latitude, int longitude, int networkId, int systemId) {
+        putIfValid(values, NetMonColumns.CDMA_CELL_BASE_STATION_ID, baseStationId);
+        // Negative coordinates are valid: only Integer.MAX_VALUE means unknown.
+        if (latitude != UNAVAILABLE) values.put(NetMonColumns.CDMA_CELL_LATITUDE, latitude);
+        if (longitude != UNAVAILABLE) values.put(NetMonColumns.CDMA_CELL_LONGITUDE, longitude);
+        putIfValid(values, NetMonColumns.CDMA_CELL_NETWORK_ID, networkId);
+        putIfValid(values, NetMonColumns.CDMA_CELL_SYSTEM_ID, systemId);
+    }
+
+    private static void putIfValid(ContentValues values, String column, int value) {
+        if (isValid(value)) values.put(column, value);
+    }
+
+    /**
+     * The older apis use -1 for unknown values, the newer ones use {@link Integer#MAX_VALUE}.
+     */
+    private static boolean isValid(int value) {
+        return value != -1 && value != UNAVAILABLE;
+    }
+
+    private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+        @Override
+        public void onCellInfoChanged(List<CellInfo> cellInfo) {
+            Log.v(TAG, "onCellInfoChanged: " + cellInfo);
+            onCellInfo(cellInfo);
+        }
+
+        @Override
+        public void onCellLocationChanged(CellLocation location) {
+            Log.v(TAG, "onCellLocationChanged: " + location);
+            // The cell info is more complete: only use the cell location if we don't get cell info.
+            if (SystemClock.elapsedRealtime() - mLastCellInfoTime > MIN_REFRESH_INTERVAL_MS) {
+                onCellLocation(location);
+            }
+        }
+    };
+}
@@ -28,9 +28,12 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.net.Uri;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 
 import java.io.IOException;
@@ -39,16 +42,24 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
 
 import ca.rmen.android.networkmonitor.Constants;
 import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
+import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences.HttpTestMode;
 import ca.rmen.android.networkmonitor.app.service.NetMonNotification;
+import ca.rmen.android.networkmonitor.app.service.probe.DnsResolver;
+import ca.rmen.android.networkmonitor.app.service.probe.OutageMonitor;
+import ca.rmen.android.networkmonitor.app.service.probe.ProbeEngine;
 import ca.rmen.android.networkmonitor.provider.NetMonColumns;
 import ca.rmen.android.networkmonitor.util.TelephonyUtil;
 
@@ -60,20 +71,33 @@ public class ConnectionTesterDataSource implements NetMonDataSource {
     private Context mContext;
 
     private enum NetworkTestResult {
-        PASS, FAIL, SLOW
+        PASS, FAIL, SLOW, CAPTIVE_PORTAL, REDIRECT
     }
 
     private static final int PORT = 80;
     private static final int HTTPS_PORT = 443;
     private static final int DURATION_SLOW = 5000;
+    private static final int DNS_DURATION_SLOW = 1000;
+    private static final int DNS_TIMEOUT = 5000;
 
     // The maximum connection and read timeout for a connection test, in ms.  We may actually set a lower timeout if the user has set the app to test very frequently (ex: every 10 seconds).
     private static final int MAX_TIMEOUT_PER_TEST = 15000;
 
     private static final String HTTP_GET = "GET / HTTP/1.1\r\n\r\n";
+    private static final String HTTP_TEST_GET = "GET %s HTTP/1.1\r\nHost: %s\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n";
+    private static final Pattern STATUS_LINE_PATTERN = Pattern.compile("^HTTP/\\d\\.\\d (\\d{3})");
+    private static final Pattern CONTENT_LENGTH_PATTERN = Pattern.compile("^Content-Length:\\s*(\\d+)$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TRANSFER_ENCODING_CHUNKED_PATTERN = Pattern.compile("^Transfer-Encoding:.*chunked", Pattern.CASE_INSENSITIVE);
+    // The size of the last chunk is 0, and may be followed by extensions.
+    private static final Pattern LAST_CHUNK_PATTERN = Pattern.compile("^0+(;|$)");
+    private static final int MAX_STATUS_LINE_LENGTH = 256;
+    private static final int MAX_HEADERS_LENGTH = 8192;
 
     // The timeout for each connection test, in ms.
     private volatile int mTimeout;
+    // Runs the socket test while the HTTPS test runs on the calling thread.
+    private ExecutorService mExecutorService;
+    private OutageMonitor mOutageMonitor;
 
     public ConnectionTesterDataSource() {
         Log.v(TAG, "Constructor");
@@ -83,6 +107,8 @@ public class ConnectionTesterDataSource implements NetMonDataSource {
     public void onCreate(Context context) {
         Log.v(TAG, "onCreate");
         mContext = context;
+        mExecutorService = Executors.newSingleThreadExecutor();
+        mOutageMonitor = new OutageMonitor();
         PreferenceManager.getDefaultSharedPreferences(context).registerOnSharedPreferenceChangeListener(mPrefListener);
         int updateInterval = NetMonPreferences.getInstance(context).getUpdateInterval();
         if (updateInterval == NetMonPreferences.PREF_UPDATE_ON_NETWORK_CHANGE) updateInterval = MAX_TIMEOUT_PER_TEST;
@@ -92,6 +118,8 @@ public class ConnectionTesterDataSource implements NetMonDataSource {
     @Override
     public void onDestroy() {
         PreferenceManager.getDefaultSharedPreferences(mContext).unregisterOnSharedPreferenceChangeListener(mPrefListener);
+        mExecutorService.shutdownNow();
+        mOutageMonitor.shutdown();
     }
 
     /**
@@ -99,8 +127,8 @@ public class ConnectionTesterDataSource implements NetMonDataSource {
      */
     private void setTimeout(int timeout) {
         Log.v(TAG, "setTimeout " + timeout);
-        // Divide the total timeout by the total number of connection tests, to get the maximum timeout for each test.
-        mTimeout = Math.min(timeout / 2, MAX_TIMEOUT_PER_TEST);
+        // The tests run concurrently, so each test may use the whole timeout.
+        mTimeout = Math.min(timeout, MAX_TIMEOUT_PER_TEST);
         Log.v(TAG, "setTimeout: set timeout to " + mTimeout);
     }
 
@@ -110,20 +138,61 @@ public class ConnectionTesterDataSource implements NetMonDataSource {
     @Override
     public ContentValues getContentValues() {
         Log.v(TAG, "getContentValues");
-        ContentValues values = new ContentValues(2);
+        ContentValues values = new ContentValues(14);
         if (!NetMonPreferences.getInstance(mContext).isConnectionTestEnabled()) {
             Log.v(TAG, "Not doing data test");
             return values;
         }
-        NetworkTestResult socketTestResult = getSocketTestResult();
-        NetworkTestResult httpTestResult = getHttpTestResult();
-        values.put(NetMonColumns.SOCKET_CONNECTION_TEST, socketTestResult.name());
-        values.put(NetMonColumns.HTTP_CONNECTION_TEST, httpTestResult.name());
-        if ((socketTestResult == NetworkTestResult.FAIL || httpTestResult == NetworkTestResult.FAIL) && shouldHaveDataConnection()) {
+        NetMonPreferences prefs = NetMonPreferences.getInstance(mContext);
+        String host = prefs.getTestServer().trim();
+        long testStart = System.currentTimeMillis();
+        // Test the resolver on its own, so a DNS failure isn't mistaken for a connection failure.
+        // Unless the HTTP test requests another URL, both tests connect to the same server: they use the result of this lookup, even if it failed.
+        long before = SystemClock.elapsedRealtime();
+        DnsResolver.Lookup lookup = putDnsTestResult(values, host);
+        InetAddress address = lookup.address;
+        long dnsTime = lookup.time;
+        HttpTestRequest httpTestRequest = getHttpTestRequest(prefs, host);
+        Future<ConnectionTestResult> socketTestFuture = address == null ? null : mExecutorService.submit(() -> getSocketTestResult(before, address));
+        ConnectionTestResult httpTestResult;
+        if (httpTestRequest.host.equals(host)) {
+            httpTestResult = getHttpTestResult(before, dnsTime, httpTestRequest, address);
+        } else {
+            long httpBefore = SystemClock.elapsedRealtime();
+            InetAddress httpAddress = resolve(httpTestRequest.host);
+            httpTestResult = getHttpTestResult(httpBefore, SystemClock.elapsedRealtime() - httpBefore, httpTestRequest, httpAddress);
+        }
+        ConnectionTestResult socketTestResult = socketTestFuture == null ? new ConnectionTestResult() : getResult(socketTestFuture);
+        if (address != null) socketTestResult.dnsTime = dnsTime;
+        values.put(NetMonColumns.SOCKET_CONNECTION_TEST, socketTestResult.result.name());
+        putIfMeasured(values, NetMonColumns.SOCKET_DNS_TIME, socketTestResult.dnsTime);
+        putIfMeasured(values, NetMonColumns.SOCKET_CONNECT_TIME, socketTestResult.connectTime);
+        putIfMeasured(values, NetMonColumns.SOCKET_FIRST_BYTE_TIME, socketTestResult.firstByteTime);
+        values.put(NetMonColumns.HTTP_CONNECTION_TEST, httpTestResult.result.name());
+        putIfMeasured(values, NetMonColumns.HTTP_DNS_TIME, httpTestResult.dnsTime);
+        putIfMeasured(values, NetMonColumns.HTTP_CONNECT_TIME, httpTestResult.connectTime);
+        putIfMeasured(values, NetMonColumns.HTTP_TLS_TIME, httpTestResult.tlsTime);
+        putIfMeasured(values, NetMonColumns.HTTP_FIRST_BYTE_TIME, httpTestResult.firstByteTime);
+        boolean hasFailed = socketTestResult.result == NetworkTestResult.FAIL || httpTestResult.result == NetworkTestResult.FAIL
+                || httpTestResult.result == NetworkTestResult.CAPTIVE_PORTAL || httpTestResult.result == NetworkTestResult.REDIRECT;
+        if (hasFailed && shouldHaveDataConnection()) {
             Log.v(TAG, "A connection test failed even though we expect to have a data connection");
             NetMonNotification.showFailedTestNotification(mContext);
+            // The burst of probes only connects to the server: it could tell when the socket test would pass again, but not the HTTP test.
+            if (socketTestResult.result == NetworkTestResult.FAIL) {
+                mOutageMonitor.onTestFailed(testStart, new ProbeEngine.Target(host, PORT));
+            } else {
+                mOutageMonitor.onTestFailed(testStart);
+            }
         } else {
             NetMonNotification.dismissFailedTestNotification(mContext);
+            if (!hasFailed) mOutageMonitor.onTestPassed();
+        }
+        OutageMonitor.Outage outage = mOutageMonitor.pollEndedOutage();
+        if (outage != null) {
+            values.put(NetMonColumns.OUTAGE_START, outage.start);
+            values.put(NetMonColumns.OUTAGE_END, outage.end);
+            values.put(NetMonColumns.OUTAGE_DURATION, outage.getDuration());
         }
         return values;
     }
@@ -133,48 +202,45 @@ public class ConnectionTesterDataSource implements NetMonDataSource {
      * is up. This test uses a basic socket connection.
      *
      * @return {@link NetworkTestResult#PASS} if we were able to read a response to a GET request quickly, {@link NetworkTestResult#FAIL} if any error occurred
-     *         trying to execute the GET, or {@link NetworkTestResult#SLOW} if we were able to read a response, but it took too long.
+     *         trying to execute the GET, or {@link NetworkTestResult#SLOW} if we were able to read a response, but it took too long.  The result also
+     *         includes the time of each phase of the test that we reached.
+     * @param before the time at which we started resolving the test server, to determine if the test was slow.
+     * @param address the resolved address of the test server.
      */
-    private NetworkTestResult getSocketTestResult() {
+    private ConnectionTestResult getSocketTestResult(long before, InetAddress address) {
         Log.v(TAG, "getSocketTestResult BEGIN");
+        ConnectionTestResult result = new ConnectionTestResult();
         Socket socket = null;
         try {
             // Prevent the system from closing the connection after 30 minutes of screen off.
-            long before = System.currentTimeMillis();
+            long resolved = SystemClock.elapsedRealtime();
             socket = new Socket();
             socket.setSoTimeout(mTimeout);
-            String host = NetMonPreferences.getInstance(mContext).getTestServer().trim();
-            Log.d(TAG, "getSocketTestResult Resolving " + host);
-            InetSocketAddress remoteAddress = new InetSocketAddress(host, PORT);
-            InetAddress address = remoteAddress.getAddress();
-            if (address == null) {
-                Log.d(TAG, "getSocketTestResult Could not resolve");
-                return NetworkTestResult.FAIL;
-            }
-            Log.d(TAG, "getSocketTestResult Resolved " + address.getHostAddress());
-            Log.d(TAG, "getSocketTestResult Connecting...");
-            socket.connect(remoteAddress, mTimeout);
+            Log.d(TAG, "getSocketTestResult Connecting to " + address.getHostAddress() + "...");
+            socket.connect(new InetSocketAddress(address, PORT), mTimeout);
+            long connected = SystemClock.elapsedRealtime();
+            result.connectTime = connected - resolved;
             Log.d(TAG, "getSocketTestResult Connected");
 
             Log.d(TAG, "getSocketTestResult Sending GET...");
             OutputStream outputStream = socket.getOutputStream();
             outputStream.write(HTTP_GET.getBytes("utf-8"));
             outputStream.flush();
+            long sent = SystemClock.elapsedRealtime();
             Log.d(TAG, "getSocketTestResult Sent GET");
             InputStream inputStream = socket.getInputStream();
             Log.d(TAG, "getSocketTestResult Reading...");
             int read = inputStream.read();
             Log.d(TAG, "getSocketTestResult Read read=" + read);
-            long after = System.currentTimeMillis();
+            long after = SystemClock.elapsedRealtime();
             if (read != -1) {
-                if (after - before > DURATION_SLOW) return NetworkTestResult.SLOW;
-                else
-                    return NetworkTestResult.PASS;
+                result.firstByteTime = after - sent;
+                result.result = after - before > DURATION_SLOW ? NetworkTestResult.SLOW : NetworkTestResult.PASS;
             }
-            return NetworkTestResult.FAIL;
+            return result;
         } catch (Throwable t) {
             Log.d(TAG, "getSocketTestResult Caught an exception", t);
-            return NetworkTestResult.FAIL;
+            return result;
         } finally {
             if (socket != null) {
                 try {
@@ -188,60 +254,254 @@ public class ConnectionTesterDataSource implements NetMonDataSource {
     }
 
     /**
-     * Try to open a connection to an HTTP server, and execute a simple GET request. If we can read a response to the GET request, we consider that the network
-     * is up. This test uses an HttpsURLConnection.
+     * Try to open a connection to an HTTP(S) server, and execute a simple GET request. If we can read a successful response to the GET request, we consider
+     * that the network is up.
+     * <p>
+     * This test opens the connection itself, rather than using an HttpsURLConnection, so that we can time each phase.  As with the HttpsURLConnection we
+     * used previously, the certificate chain is validated, but the host name isn't verified.
      *
      * @return {@link NetworkTestResult#PASS} if we were able to read a response to a GET request quickly, {@link NetworkTestResult#FAIL} if any error occurred
-     *         trying to execute the GET, or {@link NetworkTestResult#SLOW} if we were able to read a response, but it took too long.
+     *         trying to execute the GET, or {@link NetworkTestResult#SLOW} if we were able to read a response, but it took too long.  If we expected an empty
+     *         response, we may also find a {@link NetworkTestResult#CAPTIVE_PORTAL} or a {@link NetworkTestResult#REDIRECT} instead.  The result also
+     *         includes the time of each phase of the test that we reached.
+     * @param before the time at which we started resolving the server, to determine if the test was slow.
+     * @param dnsTime the time it took to resolve the server.
+     * @param request what to request, and from which server.
+     * @param address the resolved address of the server, or null if it couldn't be resolved.
      */
-    private NetworkTestResult getHttpTestResult() {
+    private ConnectionTestResult getHttpTestResult(long before, long dnsTime, HttpTestRequest request, InetAddress address) {
         Log.v(TAG, "getHttpTestResult BEGIN");
-        InputStream inputStream = null;
+        ConnectionTestResult result = new ConnectionTestResult();
+        if (address == null) return result;
+        result.dnsTime = dnsTime;
+        Socket socket = null;
         try {
-            HostnameVerifier hostnameVerifier = new HostnameVerifier() {
-                @Override
-                public boolean verify(String hostname, SSLSession session) {
-                    return true;
-                }
-            };
-            long before = System.currentTimeMillis();
-            String host = NetMonPreferences.getInstance(mContext).getTestServer().trim();
-            URL url = new URL("https", host, HTTPS_PORT, "/");
-            URLConnection connection = url.openConnection();
+            long resolved = SystemClock.elapsedRealtime();
+            socket = new Socket();
+            socket.setSoTimeout(mTimeout);
+            socket.connect(new InetSocketAddress(address, request.port), mTimeout);
+            long connected = SystemClock.elapsedRealtime();
+            result.connectTime = connected - resolved;
             Log.v(TAG, "Opened connection");
-            connection.setConnectTimeout(mTimeout);
-            connection.setReadTimeout(mTimeout);
-            connection.addRequestProperty("Cache-Control", "no-cache");
-            connection.setUseCaches(false);
-            if (connection instanceof HttpsURLConnection) {
-                 ((HttpsURLConnection) connection).setInstanceFollowRedirects(false);
-                 ((HttpsURLConnection) connection).setHostnameVerifier(hostnameVerifier);
+
+            if (request.isHttps) {
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, request.host, request.port, true);
+                socket = sslSocket;
+                sslSocket.startHandshake();
+                long handshaken = SystemClock.elapsedRealtime();
+                result.tlsTime = handshaken - connected;
             }
-            Log.v(TAG, "Will open input stream");
-            inputStream = connection.getInputStream();
-            long after = System.currentTimeMillis();
-            if (inputStream.read() > 0) {
-                if (after - before > DURATION_SLOW) return NetworkTestResult.SLOW;
-                else
-                    return NetworkTestResult.PASS;
-            } else {
-                return NetworkTestResult.FAIL;
+
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(String.format(HTTP_TEST_GET, request.path, request.getHostHeader()).getBytes("utf-8"));
+            outputStream.flush();
+            long sent = SystemClock.elapsedRealtime();
+            Log.v(TAG, "Will read the response");
+            InputStream inputStream = socket.getInputStream();
+            int read = inputStream.read();
+            long after = SystemClock.elapsedRealtime();
+            if (read <= 0) return result;
+            result.firstByteTime = after - sent;
+            int statusCode = readStatusCode((char) read, inputStream);
+            Log.v(TAG, "getHttpTestResult status code " + statusCode);
+            NetworkTestResult passResult = after - before > DURATION_SLOW ? NetworkTestResult.SLOW : NetworkTestResult.PASS;
+            if (request.expectsNoContent) {
+                result.result = getNoContentTestResult(statusCode, inputStream, passResult);
+            } else if (statusCode < 400) {
+                // Like HttpURLConnection.getInputStream(), we consider an error status as a failure.
+                result.result = passResult;
             }
+            return result;
         } catch (Throwable t) {
             Log.d(TAG, "getHttpTestResult Caught an exception", t);
-            return NetworkTestResult.FAIL;
+            return result;
         } finally {
-            if (inputStream != null) {
+            if (socket != null) {
                 try {
-                    inputStream.close();
+                    socket.close();
                 } catch (IOException e) {
-                    Log.w(TAG, "getHttpTestResult Could not close stream", e);
+                    Log.w(TAG, "getHttpTestResult Could not close socket", e);
                 }
             }
             Log.v(TAG, "getHttpTestResult END");
         }
     }
 
+    /**
+     * Look up the given host with the system resolver, bypassing our cache, and put the result and the duration of the lookup in the given values.
+     *
+     * @return the result of the lookup.
+     */
+    private DnsResolver.Lookup putDnsTestResult(ContentValues values, String host) {
+        DnsResolver.Lookup lookup = DnsResolver.lookup(host, Math.min(mTimeout, DNS_TIMEOUT));
+        NetworkTestResult result;
+        if (lookup.address == null) {
+            result = NetworkTestResult.FAIL;
+        } else {
+            result = lookup.time > DNS_DURATION_SLOW ? NetworkTestResult.SLOW : NetworkTestResult.PASS;
+            values.put(NetMonColumns.DNS_TIME, lookup.time);
+        }
+        values.put(NetMonColumns.DNS_TEST, result.name());
+        return lookup;
+    }
+
+    /**
+     * @return the address of the given host, or null if it couldn't be resolved.
+     */
+    private InetAddress resolve(String host) {
+        Log.d(TAG, "resolve " + host);
+        try {
+            InetAddress address = DnsResolver.resolve(host, mTimeout);
+            Log.d(TAG, "resolve: resolved " + address.getHostAddress());
+            return address;
+        } catch (UnknownHostException e) {
+            Log.d(TAG, "resolve: could not resolve " + host, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the result of a test running in the background, once it's done.
+     */
+    private static ConnectionTestResult getResult(Future<ConnectionTestResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Log.d(TAG, "getResult: interrupted waiting for the test", e);
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new ConnectionTestResult();
+        } catch (ExecutionException e) {
+            Log.d(TAG, "getResult: test didn't complete", e);
+            return new ConnectionTestResult();
+        }
+    }
+
+    /**
+     * Interpret the response to a request for a URL which should return an empty 204 response.  Captive portals answer such requests with their
+     * login page, or with a redirect to it.
+     *
+     * @param statusCode the status code of the response, whose status line has already been read.
+     * @param passResult the result to return if the response is the one we expected.
+     */
+    private static NetworkTestResult getNoContentTestResult(int statusCode, InputStream inputStream, NetworkTestResult passResult) throws IOException {
+        // Some networks strip the 204 status, but not the empty body.
+        if (statusCode == 204 || statusCode == 200 && hasEmptyBody(inputStream)) return passResult;
+        if (statusCode >= 300 && statusCode < 400) return NetworkTestResult.REDIRECT;
+        if (statusCode >= 200 && statusCode < 300) return NetworkTestResult.CAPTIVE_PORTAL;
+        return NetworkTestResult.FAIL;
+    }
+
+    /**
+     * Read the rest of an HTTP response, after its status line.  The body is empty if the Content-Length header says so, if its first chunk
+     * is the last one, or, without either header, if the server closes the connection right after the headers.
+     *
+     * @return true if the response has an empty body.
+     */
+    private static boolean hasEmptyBody(InputStream inputStream) throws IOException {
+        long contentLength = -1;
+        boolean isChunked = false;
+        String line;
+        // An empty line ends the headers.
+        while (!(line = readLine(inputStream)).isEmpty()) {
+            Matcher matcher = CONTENT_LENGTH_PATTERN.matcher(line);
+            if (matcher.find()) contentLength = Long.parseLong(matcher.group(1));
+            else if (TRANSFER_ENCODING_CHUNKED_PATTERN.matcher(line).find()) isChunked = true;
+        }
+        if (contentLength >= 0) return contentLength == 0;
+        if (isChunked) return LAST_CHUNK_PATTERN.matcher(readLine(inputStream)).find();
+        return inputStream.read() == -1;
+    }
+
+    /**
+     * @return the next line of the response, without its line terminator.
+     * @throws IOException if the connection is closed before the end of the line, or if the line is too long.
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int read;
+        while ((read = inputStream.read()) != '\n') {
+            if (read == -1) throw new IOException("Unexpected end of the response");
+            if (line.length() >= MAX_HEADERS_LENGTH) throw new IOException("Header too long");
+            line.append((char) read);
+        }
+        return line.toString().trim();
+    }
+
+    /**
+     * @param firstChar the first character of the response, which the caller has already read
+     * @return the status code of an HTTP response, or -1 if the status line couldn't be parsed.
+     */
+    private static int readStatusCode(char firstChar, InputStream inputStream) throws IOException {
+        StringBuilder statusLine = new StringBuilder().append(firstChar);
+        int read;
+        while (statusLine.length() < MAX_STATUS_LINE_LENGTH && (read = inputStream.read()) != -1 && read != '\n') {
+            statusLine.append((char) read);
+        }
+        Matcher matcher = STATUS_LINE_PATTERN.matcher(statusLine);
+        if (matcher.find()) return Integer.parseInt(matcher.group(1));
+        return -1;
+    }
+
+    /**
+     * The result of a connection test, and the time in ms spent in each phase of the test.  The time of a phase which wasn't reached is -1.
+     */
+    private static class ConnectionTestResult {
+        NetworkTestResult result = NetworkTestResult.FAIL;
+        long dnsTime = -1;
+        long connectTime = -1;
+        long tlsTime = -1;
+        long firstByteTime = -1;
+    }
+
+    /**
+     * The server, and the path on that server, requested by the HTTP test.
+     */
+    private static class HttpTestRequest {
+        final String host;
+        final int port;
+        final boolean isHttps;
+        final String path;
+        // True if we request a URL which should return an empty 204 response, false if we request the home page of the test server.
+        final boolean expectsNoContent;
+
+        HttpTestRequest(String host, int port, boolean isHttps, String path, boolean expectsNoContent) {
+            this.host = host;
+            this.port = port;
+            this.isHttps = isHttps;
+            this.path = path;
+            this.expectsNoContent = expectsNoContent;
+        }
+
+        String getHostHeader() {
+            return port == (isHttps ? HTTPS_PORT : PORT) ? host : host + ":" + port;
+        }
+    }
+
+    /**
+     * @return the request for the HTTP test, according to the test mode the user selected.  If the URL of the {@link HttpTestMode#NO_CONTENT} mode is
+     * invalid, we fall back to requesting the home page of the test server.
+     */
+    private static HttpTestRequest getHttpTestRequest(NetMonPreferences prefs, String testServer) {
+        if (prefs.getHttpTestMode() == HttpTestMode.NO_CONTENT) {
+            Uri uri = Uri.parse(prefs.getHttpTestUrl().trim());
+            String host = uri.getHost();
+            if (!TextUtils.isEmpty(host)) {
+                boolean isHttps = "https".equalsIgnoreCase(uri.getScheme());
+                int port = uri.getPort() > 0 ? uri.getPort() : isHttps ? HTTPS_PORT : PORT;
+                String path = TextUtils.isEmpty(uri.getEncodedPath()) ? "/" : uri.getEncodedPath();
+                if (uri.getEncodedQuery() != null) path += "?" + uri.getEncodedQuery();
+                return new HttpTestRequest(host, port, isHttps, path, true);
+            }
+            Log.v(TAG, "getHttpTestRequest: invalid url " + prefs.getHttpTestUrl());
+        }
+        return new HttpTestRequest(testServer, HTTPS_PORT, true, "/", false);
+    }
+
+    private static void putIfMeasured(ContentValues values, String column, long time) {
+        if (time >= 0) values.put(column, time);
+    }
+
     private final OnSharedPreferenceChangeListener mPrefListener = new OnSharedPreferenceChangeListener() {
 
         @Override
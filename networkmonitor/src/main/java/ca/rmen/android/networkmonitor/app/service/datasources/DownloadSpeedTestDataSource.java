@@ -31,9 +31,11 @@ import java.util.Locale;
 
 import ca.rmen.android.networkmonitor.Constants;
 import ca.rmen.android.networkmonitor.R;
+import ca.rmen.android.networkmonitor.app.speedtest.LatencyUnderLoadProbe;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestDownload;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestDownloadConfig;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestExecutionDecider;
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestPayloadSizer;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestPreferences;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
@@ -46,18 +48,18 @@ import android.util.Log;
 public class DownloadSpeedTestDataSource implements NetMonDataSource {
     private static final String TAG = Constants.TAG + DownloadSpeedTestDataSource.class.getSimpleName();
 
-    private Context mContext;
     private SpeedTestPreferences mPreferences;
     private String mDisabledValue;
     private SpeedTestExecutionDecider mSpeedTestExecutionDecider;
+    private SpeedTestPayloadSizer mSpeedTestPayloadSizer;
 
     @Override
     public void onCreate(Context context) {
         Log.v(TAG, "onCreate");
-        mContext = context;
         mPreferences = SpeedTestPreferences.getInstance(context);
         mDisabledValue = context.getString(R.string.speed_test_disabled);
         mSpeedTestExecutionDecider = new SpeedTestExecutionDecider(context);
+        mSpeedTestPayloadSizer = new SpeedTestPayloadSizer(context);
     }
 
     @Override
@@ -71,14 +73,50 @@ public class DownloadSpeedTestDataSource implements NetMonDataSource {
         ContentValues values = new ContentValues();
 
         if (mSpeedTestExecutionDecider.shouldExecute()) {
-            SpeedTestDownloadConfig downloadConfig = mPreferences.getDownloadConfig(mContext);
+            if (mSpeedTestPayloadSizer.isBudgetExhausted()) return values;
+            SpeedTestDownloadConfig downloadConfig = mSpeedTestPayloadSizer.getDownloadConfig();
             if (!downloadConfig.isValid()) return values;
-            SpeedTestResult result = SpeedTestDownload.download(downloadConfig);
+            // Measure the latency before and during the transfer, to see how much the transfer slows down other traffic.
+            LatencyUnderLoadProbe latencyProbe = LatencyUnderLoadProbe.create(downloadConfig);
+            if (latencyProbe != null) latencyProbe.start();
+            SpeedTestResult result = SpeedTestDownload.download(downloadConfig, latencyProbe == null ? null : latencyProbe::onTransferStarted);
+            LatencyUnderLoadProbe.Result latency = latencyProbe == null ? null : latencyProbe.stop();
+            mSpeedTestPayloadSizer.onDownloadDone(result);
             mPreferences.setLastDownloadResult(result);
-            if (result.status == SpeedTestStatus.SUCCESS) values.put(NetMonColumns.DOWNLOAD_SPEED, String.format(Locale.getDefault(), "%.3f", result.getSpeedMbps()));
+            if (result.status == SpeedTestStatus.SUCCESS) {
+                values.put(NetMonColumns.DOWNLOAD_SPEED, formatSpeed(result));
+                values.put(NetMonColumns.DOWNLOAD_BYTE_COUNT_METHOD, result.getByteCountMethod().name());
+                // The transfer may have been too short to have any complete interval.
+                if (result.getSpeedPercentileMbps(50) >= 0) {
+                    values.put(NetMonColumns.DOWNLOAD_SPEED_P10, result.getSpeedPercentileMbps(10));
+                    values.put(NetMonColumns.DOWNLOAD_SPEED_P50, result.getSpeedPercentileMbps(50));
+                    values.put(NetMonColumns.DOWNLOAD_SPEED_P90, result.getSpeedPercentileMbps(90));
+                }
+                if (latency != null && latency.isValid()) {
+                    values.put(NetMonColumns.DOWNLOAD_IDLE_RTT, latency.idleRtt);
+                    values.put(NetMonColumns.DOWNLOAD_LOADED_RTT_P50, latency.loadedRttP50);
+                    values.put(NetMonColumns.DOWNLOAD_LOADED_RTT_P95, latency.loadedRttP95);
+                    values.put(NetMonColumns.DOWNLOAD_BUFFERBLOAT_RATIO, latency.getRatio());
+                }
+            }
         } else {
             values.put(NetMonColumns.DOWNLOAD_SPEED, mDisabledValue);
         }
         return values;
     }
+
+    /**
+     * @return the total speed, followed by the speed of each connection if there were several, ex: "24.310 (8.201 / 7.995 / 8.114)".
+     * The total comes first so that the value can still be read as a number.
+     */
+    private static String formatSpeed(SpeedTestResult result) {
+        String speed = String.format(Locale.getDefault(), "%.3f", result.getSpeedMbps());
+        if (result.streamResults.size() <= 1) return speed;
+        StringBuilder streamSpeeds = new StringBuilder();
+        for (SpeedTestResult streamResult : result.streamResults) {
+            if (streamSpeeds.length() > 0) streamSpeeds.append(" / ");
+            streamSpeeds.append(String.format(Locale.getDefault(), "%.3f", streamResult.getSpeedMbps()));
+        }
+        return speed + " (" + streamSpeeds + ")";
+    }
 }
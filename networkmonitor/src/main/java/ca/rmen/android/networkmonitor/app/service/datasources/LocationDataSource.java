@@ -0,0 +1,149 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.datasources;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+import ca.rmen.android.networkmonitor.util.PermissionUtil;
+
+/**
+ * Retrieves the device location, without ever turning on the gps or requesting a location fix ourselves.
+ * <p>
+ * We listen to the passive provider: we receive the locations requested by other apps, and cache the latest one.
+ * A location older than {@link #MAX_LOCATION_AGE_MS} is not reported.
+ * <p>
+ * The location requires the location permission. If it isn't granted, this data source retrieves nothing until it is.
+ */
+public class LocationDataSource implements NetMonDataSource {
+    private static final String TAG = Constants.TAG + LocationDataSource.class.getSimpleName();
+
+    // We don't need to hear about every location other apps receive.
+    private static final long MIN_UPDATE_INTERVAL_MS = 15000;
+    private static final float MIN_UPDATE_DISTANCE_M = 10;
+    private static final long MAX_LOCATION_AGE_MS = 5 * 60 * 1000;
+
+    private Context mContext;
+    private LocationManager mLocationManager;
+    private volatile boolean mIsListening;
+    private volatile Location mLastLocation;
+
+    public LocationDataSource() {}
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+        mLocationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        startListening();
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        if (mLocationManager != null && mIsListening) mLocationManager.removeUpdates(mLocationListener);
+        mIsListening = false;
+    }
+
+    /**
+     * @return a ContentValues with the {@link NetMonColumns#DEVICE_LATITUDE} and {@link NetMonColumns#DEVICE_LONGITUDE}, and
+     *         the {@link NetMonColumns#DEVICE_POSITION_ACCURACY} and {@link NetMonColumns#DEVICE_SPEED} if they're known. The ContentValues
+     *         is empty if we don't have a recent location.
+     */
+    @Override
+    public ContentValues getContentValues() {
+        Log.v(TAG, "getContentValues");
+        ContentValues values = new ContentValues(4);
+        // The user may have granted the permission since we were created.
+        if (!mIsListening) startListening();
+        Location location = mLastLocation;
+        if (location == null) return values;
+        long age = getAge(location);
+        if (age > MAX_LOCATION_AGE_MS) {
+            Log.v(TAG, "getContentValues: last location is too old: " + age + " ms");
+            return values;
+        }
+        values.put(NetMonColumns.DEVICE_LATITUDE, location.getLatitude());
+        values.put(NetMonColumns.DEVICE_LONGITUDE, location.getLongitude());
+        if (location.hasAccuracy()) values.put(NetMonColumns.DEVICE_POSITION_ACCURACY, location.getAccuracy());
+        if (location.hasSpeed()) values.put(NetMonColumns.DEVICE_SPEED, location.getSpeed());
+        return values;
+    }
+
+    /**
+     * We may be called on a thread without a looper, when the user grants the permission while the service is running:
+     * the location updates are always delivered on the main thread.
+     */
+    private void startListening() {
+        if (mLocationManager == null || !PermissionUtil.hasLocationPermission(mContext)) return;
+        try {
+            mLastLocation = mLocationManager.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER);
+            mLocationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, MIN_UPDATE_INTERVAL_MS, MIN_UPDATE_DISTANCE_M, mLocationListener,
+                    Looper.getMainLooper());
+            mIsListening = true;
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.v(TAG, "startListening: could not listen to the passive provider: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the time elapsed since the location was received.
+     */
+    private static long getAge(Location location) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+        }
+        return System.currentTimeMillis() - location.getTime();
+    }
+
+    private final LocationListener mLocationListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            Log.v(TAG, "onLocationChanged: " + location);
+            mLastLocation = location;
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+        }
+    };
+}
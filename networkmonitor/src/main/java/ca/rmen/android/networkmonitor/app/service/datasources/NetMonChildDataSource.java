@@ -0,0 +1,46 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.datasources;
+
+import android.content.ContentValues;
+
+import java.util.List;
+
+/**
+ * A {@link NetMonDataSource} which also retrieves rows for another table. Each of these rows refers to the row of the main table which contains
+ * the values from {@link #getContentValues()}.
+ */
+interface NetMonChildDataSource extends NetMonDataSource {
+    /**
+     * @return the name of the table of the rows returned by {@link #getChildRows()}.
+     */
+    String getChildTable();
+
+    /**
+     * This will be called right after {@link #getContentValues()}, on the same thread.
+     *
+     * @return the rows retrieved during the last call to {@link #getContentValues()}.
+     */
+    List<ContentValues> getChildRows();
+}
@@ -28,7 +28,9 @@ import android.content.Context;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import ca.rmen.android.networkmonitor.Constants;
 import ca.rmen.android.networkmonitor.app.service.NetMonService;
@@ -37,23 +39,39 @@ import java8.util.stream.StreamSupport;
 /**
  * Maintains the list of {@link NetMonDataSource}s. For now, the list of available data sources is hardcoded in this class. {@link NetMonService} has a
  * reference to this class, which delegates the data retrieval to the individual data sources.
+ * <p>
+ * The speed tests run in the background, on a {@link SpeedTestLane}, and never at the same time as the data sources which test the connection:
+ * a row collected while a speed test is running has no connection test results.
  */
 public class NetMonDataSources {
 
     private static final String TAG = Constants.TAG + NetMonDataSources.class.getSimpleName();
     private final List<NetMonDataSource> mSources = new ArrayList<>();
+    private final List<NetMonDataSource> mConnectionTestSources = new ArrayList<>();
+    private SpeedTestLane mSpeedTestLane;
+    // False if the connection tests were skipped during the last call to getContentValues(), because a speed test was running.
+    private boolean mHasRunConnectionTests;
     // @formatter:off
     private static final Class<?>[] DATA_SOURCE_CLASSES = new Class<?>[] { 
         ActiveNetworkInfoDataSource.class,
         BatteryDataSource.class,
+        CellIdentityDataSource.class,
         CellSignalStrengthDataSource.class,
-        ConnectionTesterDataSource.class,
+        LocationDataSource.class,
         MobileDataConnectionDataSource.class,
         SIMDataSource.class,
         ServiceStateDataSource.class,
         WiFiDataSource.class,
         NetworkInterfaceDataSource.class,
-        ConsumingAppDataSource.class,
+        ConsumingAppDataSource.class
+    };
+    // These data sources use the network: they must not run during a speed test.
+    private static final Class<?>[] CONNECTION_TEST_DATA_SOURCE_CLASSES = new Class<?>[] {
+        ConnectionTesterDataSource.class,
+        ProbeDataSource.class,
+        UdpBurstDataSource.class
+    };
+    private static final Class<?>[] SPEED_TEST_DATA_SOURCE_CLASSES = new Class<?>[] {
         DownloadSpeedTestDataSource.class,
         UploadSpeedTestDataSource.class
     };
@@ -64,30 +82,70 @@ public class NetMonDataSources {
      */
     public void onCreate(Context context) {
         Log.v(TAG, "onCreate");
-        for (Class<?> clazz : DATA_SOURCE_CLASSES) {
+        mSources.addAll(createDataSources(DATA_SOURCE_CLASSES));
+        mConnectionTestSources.addAll(createDataSources(CONNECTION_TEST_DATA_SOURCE_CLASSES));
+        mSources.addAll(mConnectionTestSources);
+        StreamSupport.stream(mSources).forEach(source -> source.onCreate(context));
+        mSpeedTestLane = new SpeedTestLane(createDataSources(SPEED_TEST_DATA_SOURCE_CLASSES));
+        mSpeedTestLane.onCreate(context);
+    }
+
+    private static List<NetMonDataSource> createDataSources(Class<?>[] classes) {
+        List<NetMonDataSource> result = new ArrayList<>(classes.length);
+        for (Class<?> clazz : classes) {
             NetMonDataSource dataSource;
             //noinspection TryWithIdenticalCatches
             try {
                 dataSource = (NetMonDataSource) clazz.newInstance();
                 Log.v(TAG, "Added data source " + dataSource);
-                dataSource.onCreate(context);
-                mSources.add(dataSource);
+                result.add(dataSource);
             } catch (InstantiationException e) {
                 Log.e(TAG, "NetMonDataSources Could not create a " + clazz + ": " + e.getMessage(), e);
             } catch (IllegalAccessException e) {
                 Log.e(TAG, "NetMonDataSources Could not create a " + clazz + ": " + e.getMessage(), e);
             }
         }
+        return result;
     }
 
     /**
-     * @return the fetched data from all data sources.
+     * @return the fetched data from all data sources, and the values of the last speed test, if it finished since the previous call.
      */
     public ContentValues getContentValues() {
         Log.v(TAG, "getContentValues");
         ContentValues result = new ContentValues();
-        for (NetMonDataSource source : mSources)
-            result.putAll(source.getContentValues());
+        for (NetMonDataSource source : mSources) {
+            if (!mConnectionTestSources.contains(source)) result.putAll(source.getContentValues());
+        }
+        mHasRunConnectionTests = mSpeedTestLane.beginConnectionTests();
+        if (mHasRunConnectionTests) {
+            try {
+                for (NetMonDataSource source : mConnectionTestSources)
+                    result.putAll(source.getContentValues());
+            } finally {
+                mSpeedTestLane.endConnectionTests();
+            }
+        } else {
+            Log.v(TAG, "getContentValues: a speed test is running, skipping the connection tests");
+        }
+        result.putAll(mSpeedTestLane.getContentValues());
+        return result;
+    }
+
+    /**
+     * @return the rows for other tables, retrieved during the last call to {@link #getContentValues()}, by table name.  The data sources
+     * which were skipped during that call still have the rows of an earlier call: they are ignored.
+     */
+    public Map<String, List<ContentValues>> getChildRows() {
+        Map<String, List<ContentValues>> result = new HashMap<>();
+        for (NetMonDataSource source : mSources) {
+            if (!mHasRunConnectionTests && mConnectionTestSources.contains(source)) continue;
+            if (source instanceof NetMonChildDataSource) {
+                NetMonChildDataSource childSource = (NetMonChildDataSource) source;
+                List<ContentValues> rows = childSource.getChildRows();
+                if (!rows.isEmpty()) result.put(childSource.getChildTable(), rows);
+            }
+        }
         return result;
     }
 
@@ -95,6 +153,7 @@ public class NetMonDataSources {
      * Perform cleanup: call {@link NetMonDataSource#onDestroy()} on all data sources.
      */
     public void onDestroy() {
+        mSpeedTestLane.onDestroy();
         StreamSupport.stream(mSources).forEach(NetMonDataSource::onDestroy);
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.datasources;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
+import ca.rmen.android.networkmonitor.app.service.probe.ProbeEngine;
+import ca.rmen.android.networkmonitor.provider.ProbeResultColumns;
+
+/**
+ * Tests the connection to each of the targets the user entered in the preferences, and provides one row per target for the
+ * {@link ProbeResultColumns} table.
+ */
+public class ProbeDataSource implements NetMonChildDataSource {
+    private static final String TAG = Constants.TAG + ProbeDataSource.class.getSimpleName();
+
+    // The maximum time to wait for all the targets, in ms.
+    private static final int MAX_TIMEOUT = 15000;
+
+    private Context mContext;
+    private List<ContentValues> mChildRows = Collections.emptyList();
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+    }
+
+    @Override
+    public ContentValues getContentValues() {
+        Log.v(TAG, "getContentValues");
+        mChildRows = Collections.emptyList();
+        NetMonPreferences prefs = NetMonPreferences.getInstance(mContext);
+        if (!prefs.isConnectionTestEnabled()) return new ContentValues();
+        List<ProbeEngine.Target> targets = ProbeEngine.parseTargets(prefs.getProbeTargets());
+        if (targets.isEmpty()) return new ContentValues();
+
+        int updateInterval = prefs.getUpdateInterval();
+        int timeout = updateInterval == NetMonPreferences.PREF_UPDATE_ON_NETWORK_CHANGE ? MAX_TIMEOUT : Math.min(updateInterval, MAX_TIMEOUT);
+        List<ProbeEngine.Result> results = ProbeEngine.probe(targets, timeout);
+        List<ContentValues> rows = new ArrayList<>(results.size());
+        for (ProbeEngine.Result result : results) {
+            ContentValues row = new ContentValues(4);
+            row.put(ProbeResultColumns.TARGET, result.target.toString());
+            row.put(ProbeResultColumns.RESULT, result.status.name());
+            if (result.connectTime >= 0) row.put(ProbeResultColumns.CONNECT_TIME, result.connectTime);
+            if (result.error != null) row.put(ProbeResultColumns.ERROR, result.error);
+            rows.add(row);
+        }
+        mChildRows = rows;
+        // The results only go to the probe results table.
+        return new ContentValues();
+    }
+
+    @Override
+    public String getChildTable() {
+        return ProbeResultColumns.TABLE_NAME;
+    }
+
+    @Override
+    public List<ContentValues> getChildRows() {
+        return mChildRows;
+    }
+}
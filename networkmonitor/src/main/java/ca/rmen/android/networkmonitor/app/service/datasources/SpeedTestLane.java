@@ -0,0 +1,155 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.datasources;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.PowerManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.R;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+import java8.util.stream.StreamSupport;
+
+/**
+ * Runs the speed test data sources on their own thread, so that a slow transfer doesn't delay the other readings of a row,
+ * or the next row.
+ * <p>
+ * A speed test never runs at the same time as the connection tests: it starts once they're done, and if it's still running
+ * when the next connection tests are due, they're skipped for that row.  The values of a speed test are added to the first row
+ * collected after it finishes.
+ */
+class SpeedTestLane {
+    private static final String TAG = Constants.TAG + SpeedTestLane.class.getSimpleName();
+    // Keep the cpu running during the speed tests, even if the scheduler lets it sleep once the row is collected.
+    private static final long SPEED_TEST_WAKELOCK_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private final List<NetMonDataSource> mSources;
+    private final ExecutorService mExecutorService = Executors.newSingleThreadExecutor();
+    // Held by the speed tests, and by the connection tests.
+    private final ReentrantLock mNetworkLock = new ReentrantLock();
+    private Future<ContentValues> mPendingRun;
+    private Context mContext;
+    private String mDisabledValue;
+
+    SpeedTestLane(List<NetMonDataSource> sources) {
+        mSources = sources;
+    }
+
+    void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+        mDisabledValue = context.getString(R.string.speed_test_disabled);
+        for (NetMonDataSource source : mSources) source.onCreate(context);
+    }
+
+    void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        mExecutorService.shutdownNow();
+        StreamSupport.stream(mSources).forEach(NetMonDataSource::onDestroy);
+    }
+
+    /**
+     * Call this before running the connection tests.  This doesn't wait for a speed test which is still running: the scheduler
+     * thread must not be held up by a long transfer.
+     *
+     * @return false if a speed test is running: the connection tests should be skipped, and {@link #endConnectionTests()}
+     * shouldn't be called.
+     */
+    boolean beginConnectionTests() {
+        return mNetworkLock.tryLock();
+    }
+
+    void endConnectionTests() {
+        mNetworkLock.unlock();
+    }
+
+    /**
+     * Call this once per row, after the connection tests.
+     *
+     * @return the values of the last run of the speed tests, if it finished since the previous call, or empty values.
+     * If the speed tests aren't running, this starts them.  If they're disabled, the run finishes right away, so each row
+     * gets the disabled value of the run started with the row before.  We don't start them again when we return the values of
+     * a speed test, because the {@link ca.rmen.android.networkmonitor.app.speedtest.SpeedTestExecutionDecider} only learns
+     * about a speed test once the row with its values has been collected.
+     */
+    ContentValues getContentValues() {
+        ContentValues values = new ContentValues();
+        if (mPendingRun != null) {
+            if (!mPendingRun.isDone()) {
+                Log.v(TAG, "getContentValues: the speed tests are still running");
+                return values;
+            }
+            try {
+                values = mPendingRun.get();
+            } catch (InterruptedException e) {
+                Log.v(TAG, "getContentValues: interrupted", e);
+                Thread.currentThread().interrupt();
+                return values;
+            } catch (ExecutionException e) {
+                Log.v(TAG, "getContentValues: the speed tests failed: " + e.getMessage(), e);
+            }
+            mPendingRun = null;
+            if (hasSpeedTest(values)) return values;
+        }
+        mPendingRun = mExecutorService.submit(this::runSpeedTests);
+        return values;
+    }
+
+    private boolean hasSpeedTest(ContentValues values) {
+        return hasSpeedTest(values.getAsString(NetMonColumns.DOWNLOAD_SPEED)) || hasSpeedTest(values.getAsString(NetMonColumns.UPLOAD_SPEED));
+    }
+
+    private boolean hasSpeedTest(String speed) {
+        return !TextUtils.isEmpty(speed) && !speed.equals(mDisabledValue);
+    }
+
+    private ContentValues runSpeedTests() {
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = null;
+        if (powerManager != null) {
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            wakeLock.acquire(SPEED_TEST_WAKELOCK_TIMEOUT_MS);
+        }
+        mNetworkLock.lock();
+        try {
+            ContentValues result = new ContentValues();
+            for (NetMonDataSource source : mSources)
+                result.putAll(source.getContentValues());
+            return result;
+        } finally {
+            mNetworkLock.unlock();
+            if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
+        }
+    }
+}
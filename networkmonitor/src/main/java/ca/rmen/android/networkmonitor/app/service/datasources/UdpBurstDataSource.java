@@ -0,0 +1,93 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.datasources;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
+import ca.rmen.android.networkmonitor.app.service.probe.DnsResolver;
+import ca.rmen.android.networkmonitor.app.service.probe.ProbeEngine;
+import ca.rmen.android.networkmonitor.app.service.probe.UdpBurstProbe;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+
+/**
+ * Measures the round-trip time, jitter and packet loss of a burst of UDP packets sent to the echo server the user entered in the preferences.
+ */
+public class UdpBurstDataSource implements NetMonDataSource {
+    private static final String TAG = Constants.TAG + UdpBurstDataSource.class.getSimpleName();
+
+    private static final int DNS_TIMEOUT = 5000;
+
+    private Context mContext;
+    private final UdpBurstProbe mProbe = new UdpBurstProbe();
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+    }
+
+    @Override
+    public ContentValues getContentValues() {
+        Log.v(TAG, "getContentValues");
+        ContentValues values = new ContentValues(5);
+        NetMonPreferences prefs = NetMonPreferences.getInstance(mContext);
+        if (!prefs.isConnectionTestEnabled()) return values;
+        List<ProbeEngine.Target> targets = ProbeEngine.parseTargets(prefs.getUdpEchoServer());
+        if (targets.isEmpty()) return values;
+
+        ProbeEngine.Target echoServer = targets.get(0);
+        InetAddress address;
+        try {
+            address = DnsResolver.resolve(echoServer.host, DNS_TIMEOUT);
+        } catch (UnknownHostException e) {
+            Log.v(TAG, "getContentValues: could not resolve " + echoServer);
+            return values;
+        }
+        UdpBurstProbe.Result result = mProbe.probe(new InetSocketAddress(address, echoServer.port), prefs.getUdpBurstCount());
+        // The burst failed before we could send anything: we know nothing about the loss.
+        if (result.sent == 0) return values;
+        values.put(NetMonColumns.UDP_LOSS, result.lossPercent);
+        if (result.received > 0) {
+            values.put(NetMonColumns.UDP_RTT_MIN, result.minRtt);
+            values.put(NetMonColumns.UDP_RTT_AVG, result.avgRtt);
+            values.put(NetMonColumns.UDP_RTT_MAX, result.maxRtt);
+            values.put(NetMonColumns.UDP_JITTER, result.jitter);
+        }
+        return values;
+    }
+}
@@ -31,8 +31,9 @@ import java.util.Locale;
 
 import ca.rmen.android.networkmonitor.Constants;
 import ca.rmen.android.networkmonitor.R;
+import ca.rmen.android.networkmonitor.app.speedtest.LatencyUnderLoadProbe;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestExecutionDecider;
-import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestPreferences;
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestPayloadSizer;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestUpload;
@@ -46,19 +47,17 @@ import android.util.Log;
 public class UploadSpeedTestDataSource implements NetMonDataSource {
     private static final String TAG = Constants.TAG + UploadSpeedTestDataSource.class.getSimpleName();
 
-    private SpeedTestPreferences mPreferences;
     private String mDisabledValue;
 
     private SpeedTestExecutionDecider mSpeedTestExecutionDecider;
-    private Context mContext;
+    private SpeedTestPayloadSizer mSpeedTestPayloadSizer;
 
     @Override
     public void onCreate(Context context) {
         Log.v(TAG, "onCreate");
-        mContext = context;
-        mPreferences = SpeedTestPreferences.getInstance(context);
         mDisabledValue = context.getString(R.string.speed_test_disabled);
         mSpeedTestExecutionDecider = new SpeedTestExecutionDecider(context);
+        mSpeedTestPayloadSizer = new SpeedTestPayloadSizer(context);
     }
 
     @Override
@@ -72,10 +71,31 @@ public class UploadSpeedTestDataSource implements NetMonDataSource {
         ContentValues values = new ContentValues();
 
         if (mSpeedTestExecutionDecider.shouldExecute()) {
-            SpeedTestUploadConfig uploadConfig = mPreferences.getUploadConfig(mContext);
+            if (mSpeedTestPayloadSizer.isBudgetExhausted()) return values;
+            SpeedTestUploadConfig uploadConfig = mSpeedTestPayloadSizer.getUploadConfig();
             if (!uploadConfig.isValid()) return values;
-            SpeedTestResult result = SpeedTestUpload.upload(uploadConfig);
-            if (result.status == SpeedTestStatus.SUCCESS) values.put(NetMonColumns.UPLOAD_SPEED, String.format(Locale.getDefault(), "%.3f", result.getSpeedMbps()));
+            // Measure the latency before and during the transfer, to see how much the transfer slows down other traffic.
+            LatencyUnderLoadProbe latencyProbe = LatencyUnderLoadProbe.create(uploadConfig);
+            if (latencyProbe != null) latencyProbe.start();
+            SpeedTestResult result = SpeedTestUpload.upload(uploadConfig, latencyProbe == null ? null : latencyProbe::onTransferStarted);
+            LatencyUnderLoadProbe.Result latency = latencyProbe == null ? null : latencyProbe.stop();
+            mSpeedTestPayloadSizer.onUploadDone(result);
+            if (result.status == SpeedTestStatus.SUCCESS) {
+                values.put(NetMonColumns.UPLOAD_SPEED, String.format(Locale.getDefault(), "%.3f", result.getSpeedMbps()));
+                values.put(NetMonColumns.UPLOAD_BYTE_COUNT_METHOD, result.getByteCountMethod().name());
+                // The transfer may have been too short to have any complete interval.
+                if (result.getSpeedPercentileMbps(50) >= 0) {
+                    values.put(NetMonColumns.UPLOAD_SPEED_P10, result.getSpeedPercentileMbps(10));
+                    values.put(NetMonColumns.UPLOAD_SPEED_P50, result.getSpeedPercentileMbps(50));
+                    values.put(NetMonColumns.UPLOAD_SPEED_P90, result.getSpeedPercentileMbps(90));
+                }
+                if (latency != null && latency.isValid()) {
+                    values.put(NetMonColumns.UPLOAD_IDLE_RTT, latency.idleRtt);
+                    values.put(NetMonColumns.UPLOAD_LOADED_RTT_P50, latency.loadedRttP50);
+                    values.put(NetMonColumns.UPLOAD_LOADED_RTT_P95, latency.loadedRttP95);
+                    values.put(NetMonColumns.UPLOAD_BUFFERBLOAT_RATIO, latency.getRatio());
+                }
+            }
         } else {
             values.put(NetMonColumns.UPLOAD_SPEED, mDisabledValue);
         }
@@ -0,0 +1,408 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.journal;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import androidx.annotation.NonNull;
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.util.IoUtil;
+
+/**
+ * An append-only, memory-mapped file containing the rows which have been collected, but not yet written to the database.
+ * <p>
+ * Writing to the mapped buffer only touches the page cache, so a row is safe as soon as {@link #append(String, ContentValues)} returns, even
+ * if our process is killed right after. The rows are moved to the database later, in large transactions, by the {@link SampleJournalCompactor}.
+ * <p>
+ * The file starts with a header (magic number, version, and index of the active region), followed by two regions of the same size.  The
+ * records are appended to the active region.  {@link #discard(Snapshot)} copies the records to keep into the other region, and then
+ * switches regions by updating the header: if we are killed during the copy, the active region is still intact.
+ * <p>
+ * Each record has this layout:
+ * <pre>
+ * int    payload length (0 marks the end of the journal)
+ * int    crc32 of the payload
+ * byte[] payload: the table name, the number of values, then for each value: the column name, a type byte, and the value itself.
+ * </pre>
+ * A record which was only partially written (if we were killed in the middle of an append) fails the crc check, and is ignored along with
+ * anything after it.
+ */
+public class SampleJournal {
+    private static final String TAG = Constants.TAG + SampleJournal.class.getSimpleName();
+
+    private static final int MAGIC = 0x4e4d4a31; // "NMJ1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 12;
+    private static final int ACTIVE_REGION_POSITION = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // The size of each of the two regions.
+    private static final int DEFAULT_CAPACITY = 512 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_INTEGER = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_BLOB = 7;
+
+    /**
+     * A row read back from the journal.
+     */
+    public static class Entry {
+        public final String table;
+        public final ContentValues values;
+
+        private Entry(String table, ContentValues values) {
+            this.table = table;
+            this.values = values;
+        }
+    }
+
+    /**
+     * The entries currently in the journal, and the position just after the last of them.
+     */
+    public static class Snapshot {
+        public final List<Entry> entries;
+        final int endPosition;
+
+        private Snapshot(List<Entry> entries, int endPosition) {
+            this.entries = entries;
+            this.endPosition = endPosition;
+        }
+    }
+
+    private final File mFile;
+    private final int mCapacity;
+    private final CRC32 mCrc = new CRC32();
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mBuffer;
+    // Reused to encode each record before copying it into the mapped buffer.
+    private ByteBuffer mScratch = ByteBuffer.allocate(4096);
+    // The index, 0 or 1, of the region containing the records.
+    private int mActiveRegion;
+    private int mWritePosition;
+    private int mEntryCount;
+
+    public SampleJournal(File file) {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    private SampleJournal(File file, int capacity) {
+        mFile = file;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Map the journal file, creating it if needed, and find where the next record should be appended.
+     */
+    public synchronized void open() throws IOException {
+        Log.v(TAG, "open " + mFile);
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        FileChannel channel = mRandomAccessFile.getChannel();
+        mBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2 * mCapacity);
+        int activeRegion = mBuffer.getInt(ACTIVE_REGION_POSITION);
+        if (mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION || (activeRegion != 0 && activeRegion != 1)) {
+            Log.v(TAG, "open: initializing new journal");
+            mActiveRegion = 0;
+            mBuffer.putInt(getRegionStart(0), 0);
+            mBuffer.putInt(ACTIVE_REGION_POSITION, 0);
+            mBuffer.putInt(4, VERSION);
+            mBuffer.putInt(0, MAGIC);
+            mBuffer.force();
+            mWritePosition = getRegionStart(0);
+            mEntryCount = 0;
+        } else {
+            mActiveRegion = activeRegion;
+            Snapshot snapshot = read();
+            mWritePosition = snapshot.endPosition;
+            mEntryCount = snapshot.entries.size();
+            Log.v(TAG, "open: found " + mEntryCount + " unflushed entries");
+        }
+    }
+
+    public synchronized void close() {
+        Log.v(TAG, "close");
+        if (mBuffer != null) mBuffer.force();
+        IoUtil.closeSilently(mRandomAccessFile);
+        mBuffer = null;
+        mRandomAccessFile = null;
+    }
+
+    /**
+     * @return the number of entries which have been appended, and not yet discarded.
+     */
+    public synchronized int getEntryCount() {
+        return mEntryCount;
+    }
+
+    /**
+     * Append a row to the journal.
+     *
+     * @return false if the journal is full (or not open). The caller should then discard entries and try again.
+     */
+    public synchronized boolean append(@NonNull String table, @NonNull ContentValues values) {
+        return append(table, values, Collections.emptyMap());
+    }
+
+    /**
+     * Append a row to the journal, followed by the rows of other tables which refer to it.  The rows are appended as a group:
+     * {@link #read()} returns all of them or none of them, even if our process is killed in the middle of this call.
+     *
+     * @param children the rows which refer to the main row, by table name.
+     * @return false if the journal is full (or not open). The caller should then discard entries and try again.
+     */
+    public synchronized boolean append(@NonNull String table, @NonNull ContentValues values, @NonNull Map<String, List<ContentValues>> children) {
+        if (mBuffer == null) return false;
+        List<byte[]> payloads = new ArrayList<>();
+        payloads.add(encode(table, values));
+        for (Map.Entry<String, List<ContentValues>> childTable : children.entrySet()) {
+            for (ContentValues child : childTable.getValue()) payloads.add(encode(childTable.getKey(), child));
+        }
+        int groupEnd = mWritePosition;
+        for (byte[] payload : payloads) groupEnd += RECORD_HEADER_SIZE + payload.length;
+        int regionEnd = getRegionStart(mActiveRegion) + mCapacity;
+        if (groupEnd > regionEnd) {
+            Log.v(TAG, "append: journal full");
+            return false;
+        }
+
+        // Mark the end of the journal after this group, before the group itself becomes readable:
+        // there may be stale data there from before the last discard().
+        if (groupEnd + RECORD_HEADER_SIZE <= regionEnd) mBuffer.putInt(groupEnd, 0);
+        // The length of the first record is still 0 (the end marker), so the records after it aren't readable yet.
+        int position = mWritePosition + RECORD_HEADER_SIZE + payloads.get(0).length;
+        for (int i = 1; i < payloads.size(); i++) position = writeRecord(position, payloads.get(i));
+        // Writing the first record last publishes the whole group.
+        writeRecord(mWritePosition, payloads.get(0));
+        mWritePosition = groupEnd;
+        mEntryCount += payloads.size();
+        return true;
+    }
+
+    /**
+     * @return all the valid entries currently in the journal.
+     */
+    @NonNull
+    public synchronized Snapshot read() {
+        List<Entry> entries = new ArrayList<>();
+        if (mBuffer == null) return new Snapshot(entries, 0);
+        int position = getRegionStart(mActiveRegion);
+        int regionEnd = position + mCapacity;
+        while (position + RECORD_HEADER_SIZE <= regionEnd) {
+            int payloadLength = mBuffer.getInt(position);
+            if (payloadLength <= 0 || position + RECORD_HEADER_SIZE + payloadLength > regionEnd) break;
+            byte[] payload = new byte[payloadLength];
+            mBuffer.position(position + RECORD_HEADER_SIZE);
+            mBuffer.get(payload);
+            mCrc.reset();
+            mCrc.update(payload, 0, payloadLength);
+            if ((int) mCrc.getValue() != mBuffer.getInt(position + 4)) {
+                Log.w(TAG, "read: corrupt record at " + position + ", ignoring the rest of the journal");
+                break;
+            }
+            try {
+                entries.add(decode(ByteBuffer.wrap(payload)));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "read: could not decode record at " + position, e);
+                break;
+            }
+            position += RECORD_HEADER_SIZE + payloadLength;
+        }
+        return new Snapshot(entries, position);
+    }
+
+    /**
+     * Remove the entries of the given snapshot from the journal. Entries appended after the snapshot was read are kept.
+     * <p>
+     * The entries to keep are copied to the start of the inactive region, which then becomes the active one.  The file is synced
+     * before and after switching regions.
+     */
+    public synchronized void discard(@NonNull Snapshot snapshot) {
+        if (mBuffer == null) return;
+        int remaining = mWritePosition - snapshot.endPosition;
+        int newRegion = 1 - mActiveRegion;
+        int newRegionStart = getRegionStart(newRegion);
+        if (remaining > 0) {
+            byte[] tail = new byte[remaining];
+            mBuffer.position(snapshot.endPosition);
+            mBuffer.get(tail);
+            mBuffer.position(newRegionStart);
+            mBuffer.put(tail);
+        }
+        int newWritePosition = newRegionStart + remaining;
+        if (newWritePosition + RECORD_HEADER_SIZE <= newRegionStart + mCapacity) mBuffer.putInt(newWritePosition, 0);
+        mBuffer.force();
+        // Publish the copy.
+        mBuffer.putInt(ACTIVE_REGION_POSITION, newRegion);
+        mBuffer.force();
+        mActiveRegion = newRegion;
+        mWritePosition = newWritePosition;
+        mEntryCount -= snapshot.entries.size();
+    }
+
+    private int getRegionStart(int region) {
+        return HEADER_SIZE + region * mCapacity;
+    }
+
+    /**
+     * Write a record, with the given payload, at the given position.  Writing the length last publishes the record.
+     *
+     * @return the position just after the record.
+     */
+    private int writeRecord(int position, byte[] payload) {
+        mCrc.reset();
+        mCrc.update(payload, 0, payload.length);
+        mBuffer.position(position + RECORD_HEADER_SIZE);
+        mBuffer.put(payload);
+        mBuffer.putInt(position + 4, (int) mCrc.getValue());
+        mBuffer.putInt(position, payload.length);
+        return position + RECORD_HEADER_SIZE + payload.length;
+    }
+
+    /**
+     * Encode the record payload for the given row, using {@link #mScratch} as a work buffer.
+     *
+     * @return the payload.
+     */
+    private byte[] encode(String table, ContentValues values) {
+        while (true) {
+            mScratch.clear();
+            try {
+                putString(mScratch, table);
+                mScratch.putShort((short) values.size());
+                for (Map.Entry<String, Object> value : values.valueSet()) {
+                    putString(mScratch, value.getKey());
+                    putValue(mScratch, value.getValue());
+                }
+                return Arrays.copyOf(mScratch.array(), mScratch.position());
+            } catch (BufferOverflowException e) {
+                mScratch = ByteBuffer.allocate(mScratch.capacity() * 2);
+            }
+        }
+    }
+
+    private static void putValue(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.put(TYPE_NULL);
+        } else if (value instanceof String) {
+            buffer.put(TYPE_STRING);
+            putString(buffer, (String) value);
+        } else if (value instanceof Long) {
+            buffer.put(TYPE_LONG);
+            buffer.putLong((Long) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            buffer.put(TYPE_INTEGER);
+            buffer.putInt(((Number) value).intValue());
+        } else if (value instanceof Double) {
+            buffer.put(TYPE_DOUBLE);
+            buffer.putDouble((Double) value);
+        } else if (value instanceof Float) {
+            buffer.put(TYPE_FLOAT);
+            buffer.putFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            buffer.put(TYPE_BOOLEAN);
+            buffer.put((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            buffer.put(TYPE_BLOB);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        } else {
+            buffer.put(TYPE_STRING);
+            putString(buffer, value.toString());
+        }
+    }
+
+    private static Entry decode(ByteBuffer buffer) {
+        String table = getString(buffer);
+        int count = buffer.getShort();
+        ContentValues values = new ContentValues(count);
+        for (int i = 0; i < count; i++) {
+            String key = getString(buffer);
+            byte type = buffer.get();
+            switch (type) {
+                case TYPE_NULL:
+                    values.putNull(key);
+                    break;
+                case TYPE_STRING:
+                    values.put(key, getString(buffer));
+                    break;
+                case TYPE_LONG:
+                    values.put(key, buffer.getLong());
+                    break;
+                case TYPE_INTEGER:
+                    values.put(key, buffer.getInt());
+                    break;
+                case TYPE_DOUBLE:
+                    values.put(key, buffer.getDouble());
+                    break;
+                case TYPE_FLOAT:
+                    values.put(key, buffer.getFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(key, buffer.get() != 0);
+                    break;
+                case TYPE_BLOB:
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    values.put(key, bytes);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown value type " + type + " for " + key);
+            }
+        }
+        return new Entry(table, values);
+    }
+
+    private static void putString(ByteBuffer buffer, String string) {
+        byte[] bytes = string.getBytes(UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.journal;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.dbops.backend.clean.RetentionManager;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+import ca.rmen.android.networkmonitor.provider.NetMonProvider;
+import ca.rmen.android.networkmonitor.provider.ProbeResultColumns;
+
+/**
+ * Writes collected rows to the {@link SampleJournal} right away, and moves them from the journal to the database in the background, in batches.
+ * <p>
+ * When we start, any rows left in the journal by a previous process are replayed into the database.
+ * <p>
+ * Components which show or send the log should call {@link #flushPending()} before reading the DB, so they don't miss the latest rows.
+ */
+public class SampleJournalCompactor {
+    private static final String TAG = Constants.TAG + SampleJournalCompactor.class.getSimpleName();
+
+    private static final String JOURNAL_FILE = "samples.journal";
+    // Flush the journal to the DB once it has this many entries...
+    private static final int FLUSH_ENTRY_COUNT = 30;
+    // ... or once this much time has passed since the last flush.
+    private static final long FLUSH_INTERVAL_MS = 60000;
+    private static final long SHUTDOWN_TIMEOUT_S = 10;
+
+    // The compactor of the running service, if any.
+    private static SampleJournalCompactor sInstance;
+
+    private final Context mContext;
+    private final SampleJournal mJournal;
+    private final RetentionManager mRetentionManager;
+    private final ExecutorService mExecutorService = Executors.newSingleThreadExecutor();
+    // Only one thread at a time may move rows from the journal to the DB.
+    private final Object mFlushLock = new Object();
+    private volatile boolean mIsJournalOpen;
+    private volatile long mLastFlushTime;
+
+    public SampleJournalCompactor(Context context) {
+        mContext = context.getApplicationContext();
+        mJournal = new SampleJournal(new File(mContext.getFilesDir(), JOURNAL_FILE));
+        mRetentionManager = new RetentionManager(mContext);
+    }
+
+    /**
+     * Open the journal and, in the background, replay any rows which a previous process didn't get to write to the DB.
+     */
+    public void onCreate() {
+        Log.v(TAG, "onCreate");
+        mRetentionManager.onCreate();
+        try {
+            mJournal.open();
+            mIsJournalOpen = true;
+        } catch (IOException e) {
+            Log.e(TAG, "onCreate: could not open the journal, rows will be written directly to the DB", e);
+        }
+        mLastFlushTime = System.currentTimeMillis();
+        if (mIsJournalOpen) mExecutorService.execute(this::recover);
+        synchronized (SampleJournalCompactor.class) {
+            sInstance = this;
+        }
+    }
+
+    /**
+     * Write the rows which are still in the journal to the DB, now, on the calling thread.  Does nothing if the service isn't running.
+     */
+    public static void flushPending() {
+        SampleJournalCompactor compactor;
+        synchronized (SampleJournalCompactor.class) {
+            compactor = sInstance;
+        }
+        if (compactor != null && compactor.mIsJournalOpen) {
+            Log.v(TAG, "flushPending");
+            compactor.flush();
+        }
+    }
+
+    /**
+     * Write any remaining rows to the DB, trim the DB to the user's limit, and close the journal.
+     */
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        synchronized (SampleJournalCompactor.class) {
+            if (sInstance == this) sInstance = null;
+        }
+        if (mIsJournalOpen) mExecutorService.execute(this::flush);
+        mExecutorService.execute(mRetentionManager::trim);
+        mExecutorService.shutdown();
+        try {
+            if (!mExecutorService.awaitTermination(SHUTDOWN_TIMEOUT_S, TimeUnit.SECONDS)) {
+                Log.w(TAG, "onDestroy: timed out flushing the journal, rows will be replayed on the next start");
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "onDestroy: interrupted flushing the journal", e);
+        }
+        synchronized (mFlushLock) {
+            mJournal.close();
+            mIsJournalOpen = false;
+        }
+        mRetentionManager.onDestroy();
+    }
+
+    /**
+     * Save a new row for the main table. The row is written to the journal immediately, and will be written to the DB later.
+     *
+     * @param children rows of other tables which refer to this row, by table name. Their {@link ProbeResultColumns#SAMPLE_ID} is set
+     *                 when they are written to the DB.
+     */
+    public void insert(ContentValues values, Map<String, List<ContentValues>> children) {
+        if (!mIsJournalOpen) {
+            insertDirectly(values, children);
+            return;
+        }
+        if (!mJournal.append(NetMonColumns.TABLE_NAME, values, children)) {
+            // The journal is full: the DB must have been unavailable for a while.  Try to make room synchronously.
+            flush();
+            if (!mJournal.append(NetMonColumns.TABLE_NAME, values, children)) {
+                insertDirectly(values, children);
+                return;
+            }
+        }
+        if (mJournal.getEntryCount() >= FLUSH_ENTRY_COUNT || System.currentTimeMillis() - mLastFlushTime >= FLUSH_INTERVAL_MS) {
+            mLastFlushTime = System.currentTimeMillis();
+            try {
+                mExecutorService.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                Log.v(TAG, "insert: we've been shut down, the rows will be written on the next start");
+            }
+        }
+    }
+
+    /**
+     * Replay the rows left in the journal by a previous process.  If we were killed after writing the rows to the DB, but before
+     * discarding them from the journal, some of them may already be in the DB: we skip those, using their timestamp.
+     */
+    private void recover() {
+        synchronized (mFlushLock) {
+            SampleJournal.Snapshot snapshot = mJournal.read();
+            if (snapshot.entries.isEmpty()) return;
+            long lastTimestamp = readLastTimestamp();
+            Log.v(TAG, "recover: " + snapshot.entries.size() + " entries in the journal, last timestamp in the DB: " + lastTimestamp);
+            List<SampleJournal.Entry> entries = new ArrayList<>(snapshot.entries.size());
+            boolean isSampleInDB = false;
+            for (SampleJournal.Entry entry : snapshot.entries) {
+                if (NetMonColumns.TABLE_NAME.equals(entry.table)) {
+                    Long timestamp = entry.values.getAsLong(NetMonColumns.TIMESTAMP);
+                    isSampleInDB = timestamp != null && timestamp <= lastTimestamp;
+                }
+                // The rows of other tables follow their sample: skip them along with it.
+                if (!isSampleInDB) entries.add(entry);
+            }
+            int sampleCount = writeToDB(entries);
+            if (sampleCount >= 0) {
+                mJournal.discard(snapshot);
+                mRetentionManager.onRowsInserted(sampleCount);
+            }
+        }
+    }
+
+    /**
+     * Move the rows currently in the journal to the DB, in a single transaction, and purge old rows if needed.
+     */
+    private void flush() {
+        synchronized (mFlushLock) {
+            if (!mIsJournalOpen) return;
+            mLastFlushTime = System.currentTimeMillis();
+            SampleJournal.Snapshot snapshot = mJournal.read();
+            if (snapshot.entries.isEmpty()) return;
+            Log.v(TAG, "flush: " + snapshot.entries.size() + " entries");
+            int sampleCount = writeToDB(snapshot.entries);
+            if (sampleCount >= 0) {
+                mJournal.discard(snapshot);
+                mRetentionManager.onRowsInserted(sampleCount);
+            }
+        }
+    }
+
+    /**
+     * Write the given journal entries to the DB, in a single transaction.  The rows of other tables get the id of the main table row
+     * which precedes them.
+     *
+     * @return the number of rows written to the main table, or -1 if the entries couldn't be written to the DB.
+     */
+    private int writeToDB(List<SampleJournal.Entry> entries) {
+        if (entries.isEmpty()) return 0;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(entries.size());
+        int sampleCount = 0;
+        int sampleOperationIndex = -1;
+        for (SampleJournal.Entry entry : entries) {
+            if (NetMonColumns.TABLE_NAME.equals(entry.table)) {
+                sampleOperationIndex = operations.size();
+                sampleCount++;
+                operations.add(ContentProviderOperation.newInsert(NetMonColumns.CONTENT_URI).withValues(entry.values).build());
+            } else if (sampleOperationIndex >= 0) {
+                operations.add(ContentProviderOperation.newInsert(getTableUri(entry.table))
+                        .withValues(entry.values)
+                        .withValueBackReference(ProbeResultColumns.SAMPLE_ID, sampleOperationIndex)
+                        .build());
+            }
+        }
+        try {
+            mContext.getContentResolver().applyBatch(NetMonProvider.AUTHORITY, operations);
+            Log.v(TAG, "writeToDB: inserted " + operations.size() + " rows");
+            return sampleCount;
+        } catch (Throwable t) {
+            Log.e(TAG, "writeToDB: could not write " + operations.size() + " rows, will try again later: " + t.getMessage(), t);
+            return -1;
+        }
+    }
+
+    private void insertDirectly(ContentValues values, Map<String, List<ContentValues>> children) {
+        Uri sampleUri = mContext.getContentResolver().insert(NetMonColumns.CONTENT_URI, values);
+        mRetentionManager.onRowsInserted(1);
+        if (sampleUri == null) return;
+        long sampleId = ContentUris.parseId(sampleUri);
+        for (Map.Entry<String, List<ContentValues>> childTable : children.entrySet()) {
+            for (ContentValues child : childTable.getValue()) {
+                child.put(ProbeResultColumns.SAMPLE_ID, sampleId);
+                mContext.getContentResolver().insert(getTableUri(childTable.getKey()), child);
+            }
+        }
+    }
+
+    private static Uri getTableUri(String table) {
+        return new Uri.Builder().scheme(ContentResolver.SCHEME_CONTENT).authority(NetMonProvider.AUTHORITY).appendPath(table).build();
+    }
+
+    /**
+     * @return the timestamp of the most recent row in the DB, or 0 if the DB is empty.
+     */
+    private long readLastTimestamp() {
+        Cursor cursor = mContext.getContentResolver().query(NetMonColumns.CONTENT_URI, new String[]{"MAX(" + NetMonColumns.TIMESTAMP + ")"}, null, null, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) return cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.probe;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ca.rmen.android.networkmonitor.Constants;
+
+/**
+ * Resolves host names with the system resolver, with a timeout, and caches the results so the connection tests don't pay for a lookup at every
+ * update.
+ * <p>
+ * The platform doesn't tell us the TTL of the records it resolves. We keep each address for {@link #CACHE_TTL}, which is shorter than the TTL
+ * of most records. Failed lookups are kept for {@link #NEGATIVE_CACHE_TTL}, so a host which just failed to resolve doesn't block the caller again
+ * for the whole timeout.
+ * <p>
+ * A lookup which times out keeps running until the system resolver gives up, which may never happen with a dead resolver. Until it's done,
+ * the next lookups of the same host wait for it, rather than starting another one, so we have at most one lookup thread per host.
+ */
+public class DnsResolver {
+    private static final String TAG = Constants.TAG + DnsResolver.class.getSimpleName();
+
+    private static final long CACHE_TTL = 60000;
+    private static final long NEGATIVE_CACHE_TTL = 10000;
+    private static final int MAX_CACHE_SIZE = 64;
+
+    public static class Lookup {
+        // null if the lookup failed or timed out.
+        public final InetAddress address;
+        // The time the lookup took, in ms, or -1 if it timed out.
+        public final long time;
+
+        private Lookup(InetAddress address, long time) {
+            this.address = address;
+            this.time = time;
+        }
+    }
+
+    private static class CacheEntry {
+        // null if the lookup failed.
+        private final InetAddress address;
+        private final long expiry;
+
+        private CacheEntry(InetAddress address, long expiry) {
+            this.address = address;
+            this.expiry = expiry;
+        }
+    }
+
+    private static final Map<String, CacheEntry> sCache = new LinkedHashMap<>();
+    // The lookups which haven't finished yet, by host.
+    private static final Map<String, Future<InetAddress>> sPendingLookups = new HashMap<>();
+    // A lookup which times out keeps its thread until the system resolver gives up: we don't want it to block the lookups of other hosts.
+    private static final ExecutorService sExecutorService = Executors.newCachedThreadPool();
+
+    private DnsResolver() {
+        // prevent instantiation
+    }
+
+    /**
+     * Look up the given host with the system resolver, ignoring our cache, and cache the result.
+     *
+     * @param timeout the maximum time to wait for the lookup, in ms.
+     */
+    public static Lookup lookup(String host, long timeout) {
+        Log.v(TAG, "lookup " + host);
+        long before = SystemClock.elapsedRealtime();
+        Future<InetAddress> future = getPendingLookup(host);
+        try {
+            InetAddress address = future.get(timeout, TimeUnit.MILLISECONDS);
+            long time = SystemClock.elapsedRealtime() - before;
+            Log.v(TAG, "lookup: resolved " + host + " to " + address.getHostAddress() + " in " + time + " ms");
+            putInCache(host, address);
+            return new Lookup(address, time);
+        } catch (TimeoutException e) {
+            Log.v(TAG, "lookup: timed out resolving " + host);
+            putInCache(host, null);
+            return new Lookup(null, -1);
+        } catch (ExecutionException e) {
+            // UnknownHostException or SecurityException
+            Log.v(TAG, "lookup: could not resolve " + host + ": " + e.getCause());
+            putInCache(host, null);
+            return new Lookup(null, SystemClock.elapsedRealtime() - before);
+        } catch (InterruptedException e) {
+            Log.v(TAG, "lookup: interrupted resolving " + host);
+            Thread.currentThread().interrupt();
+            return new Lookup(null, -1);
+        }
+    }
+
+    /**
+     * @return the lookup of the given host which is still running, or a new one if there is none.
+     */
+    private static Future<InetAddress> getPendingLookup(String host) {
+        synchronized (sPendingLookups) {
+            Future<InetAddress> future = sPendingLookups.get(host);
+            if (future == null) {
+                future = sExecutorService.submit(() -> {
+                    try {
+                        return InetAddress.getByName(host);
+                    } finally {
+                        synchronized (sPendingLookups) {
+                            sPendingLookups.remove(host);
+                        }
+                    }
+                });
+                sPendingLookups.put(host, future);
+            }
+            return future;
+        }
+    }
+
+    /**
+     * @param timeout the maximum time to wait for the lookup, in ms, if the host isn't in our cache.
+     * @return the address of the host, from our cache if we resolved it recently.
+     * @throws UnknownHostException if the host couldn't be resolved within the timeout, or failed to resolve recently.
+     */
+    public static InetAddress resolve(String host, long timeout) throws UnknownHostException {
+        synchronized (sCache) {
+            CacheEntry entry = sCache.get(host);
+            if (entry != null && entry.expiry > SystemClock.elapsedRealtime()) {
+                if (entry.address == null) throw new UnknownHostException(host);
+                return entry.address;
+            }
+        }
+        Lookup lookup = lookup(host, timeout);
+        if (lookup.address == null) throw new UnknownHostException(host);
+        return lookup.address;
+    }
+
+    /**
+     * Start resolving the given host in the background, so that several hosts can be resolved at the same time.
+     *
+     * @param timeout the maximum time to wait for the lookup, in ms, if the host isn't in our cache.
+     * @return the address of the host, or an {@link ExecutionException} caused by an {@link UnknownHostException}.
+     * @see #resolve(String, long)
+     */
+    public static Future<InetAddress> resolveAsync(String host, long timeout) {
+        return sExecutorService.submit(() -> resolve(host, timeout));
+    }
+
+    private static void putInCache(String host, InetAddress address) {
+        synchronized (sCache) {
+            sCache.remove(host);
+            long ttl = address == null ? NEGATIVE_CACHE_TTL : CACHE_TTL;
+            sCache.put(host, new CacheEntry(address, SystemClock.elapsedRealtime() + ttl));
+            // The map is in insertion order: the first entries are the oldest ones.
+            Iterator<String> iterator = sCache.keySet().iterator();
+            while (sCache.size() > MAX_CACHE_SIZE && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+    }
+}
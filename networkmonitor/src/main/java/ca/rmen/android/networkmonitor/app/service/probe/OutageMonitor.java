@@ -0,0 +1,163 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.probe;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import ca.rmen.android.networkmonitor.Constants;
+
+/**
+ * Measures the duration of outages more precisely than the update interval.
+ * <p>
+ * When the socket test fails, we start a burst of cheap probes (a TCP connection to the test server) every {@link #BURST_INTERVAL_MS}, until one
+ * succeeds. If the outage lasts longer than {@link #MAX_BURST_DURATION_MS}, we stop the burst, and the next successful connection test ends the outage.
+ * <p>
+ * A probe can only tell that the server is reachable again: when only the HTTP test fails (ex: behind a captive portal), we don't start a burst, and
+ * the next successful connection test ends the outage.  If the socket test fails later in the same outage, the burst starts then.
+ * <p>
+ * The connection tests are skipped while a speed test runs.  An outage which the burst doesn't see the end of is then ended late, by the first
+ * connection test after the speed test.
+ */
+public class OutageMonitor {
+    private static final String TAG = Constants.TAG + OutageMonitor.class.getSimpleName();
+
+    private static final long BURST_INTERVAL_MS = 2000;
+    private static final long MAX_BURST_DURATION_MS = 5 * 60 * 1000;
+
+    /**
+     * An outage which has ended.  The times are in ms since the epoch.
+     */
+    public static class Outage {
+        public final long start;
+        public final long end;
+
+        private Outage(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the duration of the outage, in seconds.
+         */
+        public long getDuration() {
+            return Math.round((end - start) / 1000.0);
+        }
+    }
+
+    private final ScheduledExecutorService mExecutorService = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> mBurst;
+    // The start of the current outage, or 0 if we're not in an outage.
+    private long mOutageStart;
+    // The start of the burst of the current outage, or 0 if we haven't started one during this outage.
+    private long mBurstStart;
+    // The last outage which ended, and which hasn't been reported yet.
+    private Outage mEndedOutage;
+
+    /**
+     * Call this when the server can't be reached while we should have a data connection.  This starts an outage, if we're not already in one,
+     * and a burst of probes to the given target, if we haven't started one yet during this outage.
+     *
+     * @param testStart the time at which the failed test started, in ms since the epoch.
+     */
+    public synchronized void onTestFailed(long testStart, ProbeEngine.Target target) {
+        if (mOutageStart == 0) {
+            Log.v(TAG, "onTestFailed: outage started");
+            mOutageStart = testStart;
+        }
+        // The outage may have started with a failure which didn't call for a burst.
+        if (mBurstStart > 0) return;
+        Log.v(TAG, "onTestFailed: probing " + target + " every " + BURST_INTERVAL_MS + " ms");
+        mBurstStart = testStart;
+        List<ProbeEngine.Target> targets = Collections.singletonList(target);
+        mBurst = mExecutorService.scheduleWithFixedDelay(() -> probe(targets), BURST_INTERVAL_MS, BURST_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Call this when the server can be reached, but a connection test fails anyway while we should have a data connection.  This starts an
+     * outage, if we're not already in one, without a burst of probes.
+     *
+     * @param testStart the time at which the failed test started, in ms since the epoch.
+     */
+    public synchronized void onTestFailed(long testStart) {
+        if (mOutageStart > 0) return;
+        Log.v(TAG, "onTestFailed: outage started");
+        mOutageStart = testStart;
+    }
+
+    /**
+     * Call this when all the connection tests pass.  This ends the current outage, if the burst of probes hasn't already seen the end of it.
+     */
+    public synchronized void onTestPassed() {
+        if (mOutageStart > 0) endOutage(System.currentTimeMillis());
+    }
+
+    /**
+     * @return the last outage which ended since the last call to this method, or null if there is none.
+     */
+    public synchronized Outage pollEndedOutage() {
+        Outage result = mEndedOutage;
+        mEndedOutage = null;
+        return result;
+    }
+
+    public void shutdown() {
+        mExecutorService.shutdownNow();
+    }
+
+    private void probe(List<ProbeEngine.Target> targets) {
+        ProbeEngine.Result result = ProbeEngine.probe(targets, BURST_INTERVAL_MS).get(0);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (mOutageStart == 0) return;
+            if (result.status != ProbeEngine.Status.FAIL) {
+                endOutage(now);
+            } else if (now - mBurstStart >= MAX_BURST_DURATION_MS) {
+                Log.v(TAG, "probe: outage still going on after " + MAX_BURST_DURATION_MS + " ms, back to the normal interval");
+                stopBurst();
+            }
+        }
+    }
+
+    private void endOutage(long now) {
+        mEndedOutage = new Outage(mOutageStart, now);
+        Log.v(TAG, "endOutage: outage lasted " + mEndedOutage.getDuration() + " s");
+        mOutageStart = 0;
+        mBurstStart = 0;
+        stopBurst();
+    }
+
+    private void stopBurst() {
+        if (mBurst != null) {
+            mBurst.cancel(false);
+            mBurst = null;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.probe;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.util.IoUtil;
+
+/**
+ * Tests whether we can open a TCP connection to each of a list of targets.
+ * <p>
+ * The connections are started with non-blocking {@link SocketChannel}s, and they all complete on a single {@link Selector}, on the calling thread:
+ * probing many targets takes about as long as probing the slowest one, and never longer than the given timeout.  The targets are all
+ * resolved, in parallel, before we start connecting, so that the connect time of a target doesn't include the lookups of the others.
+ */
+public class ProbeEngine {
+    private static final String TAG = Constants.TAG + ProbeEngine.class.getSimpleName();
+
+    private static final int DURATION_SLOW = 5000;
+    // The error of a probe which didn't connect before the timeout.
+    public static final String ERROR_TIMEOUT = "timeout";
+
+    public enum Status {
+        PASS, FAIL, SLOW
+    }
+
+    public static class Target {
+        public final String host;
+        public final int port;
+
+        public Target(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    public static class Result {
+        public final Target target;
+        public final Status status;
+        // The time to connect, in ms, or -1 if we couldn't connect.
+        public final long connectTime;
+        public final String error;
+
+        private Result(Target target, Status status, long connectTime, String error) {
+            this.target = target;
+            this.status = status;
+            this.connectTime = connectTime;
+            this.error = error;
+        }
+
+        private static Result connected(Target target, long connectTime) {
+            return new Result(target, connectTime > DURATION_SLOW ? Status.SLOW : Status.PASS, connectTime, null);
+        }
+
+        private static Result failed(Target target, String error) {
+            return new Result(target, Status.FAIL, -1, error);
+        }
+    }
+
+    /**
+     * A connection which we have started, but which hasn't completed yet.
+     */
+    private static class PendingConnection {
+        // The position of the target in the list of targets.
+        private final int index;
+        private final Target target;
+        private final SocketChannel channel;
+        private final long startTime;
+
+        private PendingConnection(int index, Target target, SocketChannel channel, long startTime) {
+            this.index = index;
+            this.target = target;
+            this.channel = channel;
+            this.startTime = startTime;
+        }
+    }
+
+    private ProbeEngine() {
+        // prevent instantiation
+    }
+
+    /**
+     * @param targets a comma or whitespace-separated list of host:port targets.  Invalid targets are ignored.
+     */
+    public static List<Target> parseTargets(String targets) {
+        List<Target> result = new ArrayList<>();
+        if (TextUtils.isEmpty(targets)) return result;
+        for (String target : targets.split("[,\\s]+")) {
+            // Split on the last colon, so we don't confuse the port with the end of a bare IPv6 address. The brackets of [ipv6]:port are removed.
+            int colon = target.lastIndexOf(':');
+            if (colon <= 0 || colon == target.length() - 1) {
+                Log.v(TAG, "parseTargets: ignoring target without a port: " + target);
+                continue;
+            }
+            String host = target.substring(0, colon);
+            if (host.startsWith("[") && host.endsWith("]")) host = host.substring(1, host.length() - 1);
+            try {
+                int port = Integer.parseInt(target.substring(colon + 1));
+                if (port > 0 && port <= 0xffff) result.add(new Target(host, port));
+                else Log.v(TAG, "parseTargets: ignoring target with invalid port: " + target);
+            } catch (NumberFormatException e) {
+                Log.v(TAG, "parseTargets: ignoring target with invalid port: " + target);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Connect to all the given targets in parallel, and close the connections as soon as they are established.
+     *
+     * @param timeout the maximum time, in ms, to wait for all the connections.
+     * @return one result per target, in the same order as the targets.
+     */
+    public static List<Result> probe(List<Target> targets, long timeout) {
+        Log.v(TAG, "probe " + targets + " with timeout " + timeout);
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+        Result[] results = new Result[targets.size()];
+        Selector selector = null;
+        List<PendingConnection> connections = new ArrayList<>(targets.size());
+        List<Future<InetAddress>> addresses = new ArrayList<>(targets.size());
+        for (Target target : targets) addresses.add(DnsResolver.resolveAsync(target.host, timeout));
+        try {
+            InetAddress[] resolvedAddresses = new InetAddress[targets.size()];
+            for (int i = 0; i < targets.size(); i++) {
+                results[i] = waitForAddress(targets.get(i), addresses.get(i), deadline, resolvedAddresses, i);
+            }
+            selector = Selector.open();
+            for (int i = 0; i < targets.size(); i++) {
+                if (results[i] != null) continue;
+                Target target = targets.get(i);
+                if (SystemClock.elapsedRealtime() >= deadline) {
+                    results[i] = Result.failed(target, ERROR_TIMEOUT);
+                    continue;
+                }
+                results[i] = startConnection(selector, target, resolvedAddresses[i], i, connections);
+            }
+            waitForConnections(selector, deadline, results);
+        } catch (IOException e) {
+            Log.v(TAG, "probe: could not open a selector: " + e.getMessage(), e);
+        } finally {
+            for (Future<InetAddress> address : addresses) address.cancel(true);
+            for (PendingConnection connection : connections) IoUtil.closeSilently(connection.channel);
+            IoUtil.closeSilently(selector);
+        }
+        List<Result> result = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            result.add(results[i] == null ? Result.failed(targets.get(i), ERROR_TIMEOUT) : results[i]);
+        }
+        Log.v(TAG, "probe: done");
+        return result;
+    }
+
+    /**
+     * Wait for the lookup of the given target, and put its address in resolvedAddresses.
+     *
+     * @param pendingAddress the lookup of the target, which may still be running.
+     * @return the result of the probe if the lookup failed, or null if the target was resolved.
+     */
+    private static Result waitForAddress(Target target, Future<InetAddress> pendingAddress, long deadline, InetAddress[] resolvedAddresses, int index) {
+        try {
+            resolvedAddresses[index] = pendingAddress.get(Math.max(0, deadline - SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            Log.v(TAG, "waitForAddress: could not resolve " + target);
+            return Result.failed(target, "unknown host");
+        } catch (TimeoutException e) {
+            Log.v(TAG, "waitForAddress: timed out resolving " + target);
+            return Result.failed(target, ERROR_TIMEOUT);
+        } catch (InterruptedException e) {
+            Log.v(TAG, "waitForAddress: interrupted resolving " + target);
+            Thread.currentThread().interrupt();
+            return Result.failed(target, "interrupted");
+        }
+    }
+
+    /**
+     * Start a non-blocking connection to the given target, and register it with the selector.
+     *
+     * @return the result of the probe if we already know it (if the connection failed or completed immediately), or null if the connection is pending.
+     */
+    private static Result startConnection(Selector selector, Target target, InetAddress address, int index, List<PendingConnection> connections) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            long startTime = SystemClock.elapsedRealtime();
+            PendingConnection connection = new PendingConnection(index, target, channel, startTime);
+            connections.add(connection);
+            if (channel.connect(new InetSocketAddress(address, target.port))) {
+                return Result.connected(target, SystemClock.elapsedRealtime() - startTime);
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT, connection);
+            return null;
+        } catch (IOException e) {
+            Log.v(TAG, "startConnection: could not connect to " + target + ": " + e.getMessage());
+            IoUtil.closeSilently(channel);
+            return Result.failed(target, getError(e));
+        }
+    }
+
+    /**
+     * Wait until all the connections registered with the selector have completed, or until the deadline, and fill in their results.
+     */
+    private static void waitForConnections(Selector selector, long deadline, Result[] results) throws IOException {
+        int pendingCount = selector.keys().size();
+        while (pendingCount > 0) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) break;
+            if (selector.select(remaining) == 0) continue;
+            long now = SystemClock.elapsedRealtime();
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                PendingConnection connection = (PendingConnection) key.attachment();
+                try {
+                    if (!connection.channel.finishConnect()) continue;
+                    results[connection.index] = Result.connected(connection.target, now - connection.startTime);
+                } catch (IOException e) {
+                    Log.v(TAG, "waitForConnections: could not connect to " + connection.target + ": " + e.getMessage());
+                    results[connection.index] = Result.failed(connection.target, getError(e));
+                }
+                key.cancel();
+                IoUtil.closeSilently(connection.channel);
+                pendingCount--;
+            }
+        }
+    }
+
+    private static String getError(IOException e) {
+        String message = e.getMessage();
+        return TextUtils.isEmpty(message) ? e.getClass().getSimpleName() : message;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.probe;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.util.IoUtil;
+
+/**
+ * Sends a burst of small UDP packets to an echo server, and measures the round-trip time, jitter, and loss of the packets which come back.
+ * <p>
+ * Each packet contains a magic number, its sequence number in the burst, and the time it was sent. The echo server must send back the packets
+ * unchanged. The packets are sent at a regular interval, like the packets of a voice call.
+ * <p>
+ * The buffers are allocated once, when the probe is created: a probe may be reused for several bursts, but not by several threads at once.
+ */
+public class UdpBurstProbe {
+    private static final String TAG = Constants.TAG + UdpBurstProbe.class.getSimpleName();
+
+    private static final int MAGIC = 0x4e4d5544; // "NMUD"
+    private static final int PACKET_SIZE = 32;
+    // Twice the packet size: if the echo server sends back anything bigger, it's not one of our packets.
+    private static final int RECEIVE_BUFFER_SIZE = 2 * PACKET_SIZE;
+    private static final long SEND_INTERVAL_MS = 20;
+    // How long we wait for the replies after the last packet of the burst was sent.
+    private static final long RECEIVE_TIMEOUT_MS = 1000;
+    private static final long NANOS_PER_MS = 1000000;
+
+    public static class Result {
+        public final int sent;
+        public final int received;
+        // In ms. These are NaN if no packet came back.
+        public final double minRtt;
+        public final double avgRtt;
+        public final double maxRtt;
+        public final double jitter;
+        public final double lossPercent;
+
+        private Result(int sent, int received, double minRtt, double avgRtt, double maxRtt, double jitter) {
+            this.sent = sent;
+            this.received = received;
+            this.minRtt = minRtt;
+            this.avgRtt = avgRtt;
+            this.maxRtt = maxRtt;
+            this.jitter = jitter;
+            this.lossPercent = sent == 0 ? 0 : 100.0 * (sent - received) / sent;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{sent=" + sent + ", received=" + received + ", minRtt=" + minRtt + ", avgRtt=" + avgRtt + ", maxRtt=" + maxRtt
+                    + ", jitter=" + jitter + ", lossPercent=" + lossPercent + "}";
+        }
+    }
+
+    private final ByteBuffer mSendBuffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+    private final ByteBuffer mReceiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+    // The round-trip time of each packet of the burst, in nanoseconds, or -1 if it didn't come back.
+    private long[] mRtts = new long[0];
+
+    /**
+     * Send a burst of packets to the given echo server, and wait for the replies.
+     *
+     * @param count the number of packets in the burst.
+     */
+    public Result probe(InetSocketAddress echoServer, int count) {
+        Log.v(TAG, "probe " + echoServer + ": " + count + " packets");
+        if (mRtts.length < count) mRtts = new long[count];
+        Arrays.fill(mRtts, 0, count, -1);
+        DatagramChannel channel = null;
+        Selector selector = null;
+        int sent = 0;
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.connect(echoServer);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+
+            long nextSendTime = System.nanoTime();
+            long deadline = Long.MAX_VALUE;
+            while (true) {
+                long now = System.nanoTime();
+                if (sent < count && now >= nextSendTime) {
+                    send(channel, sent, now);
+                    sent++;
+                    nextSendTime += SEND_INTERVAL_MS * NANOS_PER_MS;
+                    if (sent == count) deadline = now + RECEIVE_TIMEOUT_MS * NANOS_PER_MS;
+                    continue;
+                }
+                long wakeUpTime = sent < count ? nextSendTime : deadline;
+                long timeout = (wakeUpTime - now) / NANOS_PER_MS;
+                if (sent == count && (now >= deadline || getReceivedCount(count) == count)) break;
+                if (timeout > 0) selector.select(timeout);
+                else selector.selectNow();
+                selector.selectedKeys().clear();
+                receive(channel, count);
+            }
+        } catch (IOException e) {
+            // PortUnreachableException if nothing listens on the echo server's port.  Only the packets we sent before the error count as lost.
+            Log.v(TAG, "probe: error during the burst, after " + sent + " packets: " + e.getMessage(), e);
+        } finally {
+            IoUtil.closeSilently(selector);
+            IoUtil.closeSilently(channel);
+        }
+        Result result = computeResult(sent);
+        Log.v(TAG, "probe: " + result);
+        return result;
+    }
+
+    private void send(DatagramChannel channel, int sequence, long now) throws IOException {
+        mSendBuffer.clear();
+        mSendBuffer.putInt(MAGIC);
+        mSendBuffer.putInt(sequence);
+        mSendBuffer.putLong(now);
+        while (mSendBuffer.hasRemaining()) mSendBuffer.put((byte) 0);
+        mSendBuffer.flip();
+        channel.write(mSendBuffer);
+    }
+
+    /**
+     * Read all the replies which have arrived, and record the round-trip time of each one.
+     */
+    private void receive(DatagramChannel channel, int count) throws IOException {
+        while (true) {
+            mReceiveBuffer.clear();
+            int read = channel.read(mReceiveBuffer);
+            if (read <= 0) return;
+            long now = System.nanoTime();
+            if (read != PACKET_SIZE) continue;
+            mReceiveBuffer.flip();
+            if (mReceiveBuffer.getInt() != MAGIC) continue;
+            int sequence = mReceiveBuffer.getInt();
+            long sendTime = mReceiveBuffer.getLong();
+            // Ignore packets from an earlier burst, and duplicates.
+            if (sequence < 0 || sequence >= count || mRtts[sequence] >= 0) continue;
+            mRtts[sequence] = now - sendTime;
+        }
+    }
+
+    private int getReceivedCount(int count) {
+        int received = 0;
+        for (int i = 0; i < count; i++) {
+            if (mRtts[i] >= 0) received++;
+        }
+        return received;
+    }
+
+    /**
+     * The jitter is the mean difference between the round-trip times of consecutive packets which came back, like the interarrival jitter
+     * of RFC 3550, but without smoothing.
+     *
+     * @param count the number of packets which were sent.
+     */
+    private Result computeResult(int count) {
+        int received = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long total = 0;
+        long totalDifference = 0;
+        long previousRtt = -1;
+        for (int i = 0; i < count; i++) {
+            long rtt = mRtts[i];
+            if (rtt < 0) continue;
+            received++;
+            min = Math.min(min, rtt);
+            max = Math.max(max, rtt);
+            total += rtt;
+            if (previousRtt >= 0) totalDifference += Math.abs(rtt - previousRtt);
+            previousRtt = rtt;
+        }
+        if (received == 0) return new Result(count, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        double jitter = received > 1 ? toMs(totalDifference) / (received - 1) : 0;
+        return new Result(count, received, toMs(min), toMs(total) / received, toMs(max), jitter);
+    }
+
+    private static double toMs(long nanos) {
+        return (double) nanos / NANOS_PER_MS;
+    }
+}
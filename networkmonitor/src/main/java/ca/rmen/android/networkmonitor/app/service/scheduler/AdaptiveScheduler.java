@@ -0,0 +1,189 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.scheduler;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+
+/**
+ * Schedules a single Runnable with an interval which depends on how much the network conditions are changing.
+ * <p>
+ * When a sample differs significantly from the previous one (the signal strength jumps, the network type changes, or a connection
+ * test fails), the interval drops to the minimum interval set by the user. Each time a sample is similar to the previous one, the
+ * interval doubles, up to the maximum interval set by the user.
+ * <p>
+ * Like {@link AlarmManagerScheduler}, we use one-shot alarms, each run scheduling the next one.  The interval passed to
+ * {@link #schedule(Runnable, int)} and {@link #setInterval(int)} is ignored: the bounds come from the preferences.
+ */
+public class AdaptiveScheduler implements Scheduler, SampleListener {
+
+    private static final String TAG = Constants.TAG + AdaptiveScheduler.class.getSimpleName();
+    private static final String ACTION = TAG + "_action";
+    // A change in signal strength of at least this many dB (about one "bar") is considered volatile.
+    private static final int SIGNAL_STRENGTH_VOLATILITY_THRESHOLD_DB = 6;
+
+    private PendingIntent mPendingIntent;
+    private HandlerThread mHandlerThread;
+    private AlarmManager mAlarmManager;
+    private Context mContext;
+    private Runnable mRunnableImpl;
+    private int mMinInterval;
+    private int mMaxInterval;
+    private int mCurrentInterval;
+    private ContentValues mLastSample;
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+        mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Register the broadcast receiver in a background thread
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        Handler handler = new Handler(mHandlerThread.getLooper());
+        mContext.registerReceiver(mBroadcastReceiver, new IntentFilter(ACTION), null, handler);
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        mContext.unregisterReceiver(mBroadcastReceiver);
+        mAlarmManager.cancel(mPendingIntent);
+        mHandlerThread.quit();
+    }
+
+    @Override
+    public void schedule(Runnable runnable, int interval) {
+        Log.v(TAG, "schedule");
+        mRunnableImpl = runnable;
+        Intent intent = new Intent(ACTION);
+        mPendingIntent = PendingIntent.getBroadcast(mContext, TAG.hashCode(), intent, PendingIntent.FLAG_CANCEL_CURRENT);
+        setInterval(interval);
+    }
+
+    /**
+     * Reread the interval bounds from the preferences, and start again from the minimum interval.
+     */
+    @Override
+    public void setInterval(int interval) {
+        NetMonPreferences prefs = NetMonPreferences.getInstance(mContext);
+        synchronized (this) {
+            mMinInterval = prefs.getAdaptiveMinInterval();
+            mMaxInterval = Math.max(mMinInterval, prefs.getAdaptiveMaxInterval());
+            mCurrentInterval = mMinInterval;
+        }
+        Log.v(TAG, "setInterval: min=" + mMinInterval + ", max=" + mMaxInterval);
+        scheduleAlarm(0);
+    }
+
+    /**
+     * Adjust the interval, based on how much this sample differs from the previous one.
+     */
+    @Override
+    public synchronized void onSampleCollected(ContentValues values) {
+        boolean isVolatile = mLastSample != null && isVolatile(mLastSample, values);
+        mLastSample = values;
+        if (isVolatile) mCurrentInterval = mMinInterval;
+        else mCurrentInterval = (int) Math.min((long) mCurrentInterval * 2, mMaxInterval);
+        Log.v(TAG, "onSampleCollected: volatile=" + isVolatile + ", next interval=" + mCurrentInterval);
+    }
+
+    private static boolean isVolatile(ContentValues previous, ContentValues current) {
+        return hasFailed(current, NetMonColumns.SOCKET_CONNECTION_TEST)
+                || hasFailed(current, NetMonColumns.HTTP_CONNECTION_TEST)
+                || hasFailed(current, NetMonColumns.DNS_TEST)
+                || !TextUtils.equals(previous.getAsString(NetMonColumns.NETWORK_TYPE), current.getAsString(NetMonColumns.NETWORK_TYPE))
+                || !TextUtils.equals(previous.getAsString(NetMonColumns.MOBILE_DATA_NETWORK_TYPE), current.getAsString(NetMonColumns.MOBILE_DATA_NETWORK_TYPE))
+                || hasSignificantChange(previous, current, NetMonColumns.CELL_SIGNAL_STRENGTH_DBM)
+                || hasSignificantChange(previous, current, NetMonColumns.WIFI_RSSI);
+    }
+
+    /**
+     * @return true if the test failed, or if the HTTP test found a captive portal or a redirect: in each case, we don't have a working connection.
+     */
+    private static boolean hasFailed(ContentValues values, String column) {
+        String result = values.getAsString(column);
+        return Constants.CONNECTION_TEST_FAIL.equals(result)
+                || Constants.CONNECTION_TEST_CAPTIVE_PORTAL.equals(result)
+                || Constants.CONNECTION_TEST_REDIRECT.equals(result);
+    }
+
+    private static boolean hasSignificantChange(ContentValues previous, ContentValues current, String column) {
+        Integer previousValue = previous.getAsInteger(column);
+        Integer currentValue = current.getAsInteger(column);
+        // Gaining or losing the signal is a significant change.
+        if (previousValue == null || currentValue == null) return previousValue != currentValue;
+        return Math.abs(currentValue - previousValue) >= SIGNAL_STRENGTH_VOLATILITY_THRESHOLD_DB;
+    }
+
+    private void scheduleAlarm(int delay) {
+        Log.v(TAG, "scheduleAlarm: delay=" + delay);
+        long triggerAtMillis = SystemClock.elapsedRealtime() + delay;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) scheduleAlarmKitKat(triggerAtMillis);
+        else
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, mPendingIntent);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void scheduleAlarmKitKat(long triggerAtMillis) {
+        mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, mPendingIntent);
+    }
+
+    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.v(TAG, "onReceive: " + intent);
+            // The task reports its sample to us while it runs, so we can only schedule the next run afterwards.
+            try {
+                Log.v(TAG, "Executing task");
+                mRunnableImpl.run();
+            } catch (Throwable t) {
+                Log.v(TAG, "Error executing task: " + t.getMessage(), t);
+            } finally {
+                int interval;
+                synchronized (AdaptiveScheduler.this) {
+                    interval = mCurrentInterval;
+                }
+                scheduleAlarm(interval);
+            }
+        }
+    };
+}
@@ -0,0 +1,182 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.scheduler;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.PowerManager.WakeLock;
+import android.util.Log;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+
+/**
+ * Runs a single task on the boundaries of the interval on the wall clock: with an interval of 1 minute, the task runs at the start
+ * of each minute.
+ * <p>
+ * Unlike {@link ExecutorServiceScheduler}, a task which takes longer than the interval doesn't cause the following runs to queue up
+ * and run back to back: the ticks which passed while the task was running are skipped, and the task runs again at the next boundary.
+ * Unlike {@link AlarmManagerScheduler}, the time the task takes doesn't push back the following runs.
+ * <p>
+ * Each row records how late the task started, compared to its tick, and how many ticks were skipped before it.
+ * <p>
+ * Like {@link AlarmManagerScheduler}, each tick is a wakeup alarm, and we only hold a wake lock while the task runs.
+ */
+public class AlignedScheduler implements Scheduler, SampleListener {
+    private static final String TAG = Constants.TAG + AlignedScheduler.class.getSimpleName();
+    private static final String ACTION = TAG + "_action";
+    private static final long TASK_WAKELOCK_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private Context mContext;
+    private AlarmManager mAlarmManager;
+    private PendingIntent mPendingIntent;
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private WakeLock mWakeLock = null;
+    private Runnable mRunnableImpl;
+    private int mInterval;
+    // The wall clock time at which the next run should start.
+    private long mNextTick;
+    // The ticks which were skipped before the next run, because the previous run overran them.
+    private int mNextSkippedTicks;
+    // How late the current run started, and how many ticks were skipped before it.
+    private long mLateness;
+    private int mSkippedTicks;
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+        mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        }
+        // The task runs in a background thread
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+        mContext.registerReceiver(mBroadcastReceiver, new IntentFilter(ACTION), null, mHandler);
+    }
+
+    @Override
+    public void schedule(Runnable runnable, int interval) {
+        Log.v(TAG, "schedule at interval " + interval);
+        mRunnableImpl = runnable;
+        Intent intent = new Intent(ACTION);
+        mPendingIntent = PendingIntent.getBroadcast(mContext, TAG.hashCode(), intent, PendingIntent.FLAG_CANCEL_CURRENT);
+        setInterval(interval);
+    }
+
+    /**
+     * The task is rescheduled on the task's thread, so that a run in progress doesn't schedule the next run with the old interval.
+     */
+    @Override
+    public void setInterval(int interval) {
+        Log.v(TAG, "setInterval " + interval);
+        mHandler.post(() -> {
+            synchronized (this) {
+                mInterval = Math.max(1, interval);
+                mNextTick = 0;
+                mNextSkippedTicks = 0;
+            }
+            scheduleNextTick(System.currentTimeMillis());
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        mContext.unregisterReceiver(mBroadcastReceiver);
+        if (mPendingIntent != null) mAlarmManager.cancel(mPendingIntent);
+        mHandlerThread.quit();
+    }
+
+    /**
+     * Add the lateness and skipped ticks of the current run to its row.
+     */
+    @Override
+    public synchronized void onSampleCollected(ContentValues values) {
+        values.put(NetMonColumns.SCHEDULE_LATENESS, mLateness);
+        values.put(NetMonColumns.SKIPPED_TICKS, mSkippedTicks);
+    }
+
+    /**
+     * Schedule the task at the first boundary of the interval at or after the given time, and after the current tick.  The boundaries
+     * between the current tick and that one are counted as skipped.
+     */
+    private synchronized void scheduleNextTick(long now) {
+        long nextTick = (now + mInterval - 1) / mInterval * mInterval;
+        if (mNextTick > 0) {
+            nextTick = Math.max(nextTick, mNextTick + mInterval);
+            mNextSkippedTicks = (int) ((nextTick - mNextTick) / mInterval) - 1;
+        }
+        mNextTick = nextTick;
+        Log.v(TAG, "scheduleNextTick: in " + (nextTick - now) + " ms, skipped " + mNextSkippedTicks + " ticks");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) scheduleAlarmKitKat(nextTick);
+        else
+            mAlarmManager.set(AlarmManager.RTC_WAKEUP, nextTick, mPendingIntent);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void scheduleAlarmKitKat(long triggerAtMillis) {
+        mAlarmManager.setExact(AlarmManager.RTC_WAKEUP, triggerAtMillis, mPendingIntent);
+    }
+
+    private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.v(TAG, "onReceive: " + intent);
+            // If we have bad luck, we might be created,
+            // and receive a broadcast before schedule was called
+            if (mRunnableImpl == null) return;
+            synchronized (AlignedScheduler.this) {
+                mLateness = System.currentTimeMillis() - mNextTick;
+                mSkippedTicks = mNextSkippedTicks;
+                mNextSkippedTicks = 0;
+            }
+            if (mWakeLock != null) mWakeLock.acquire(TASK_WAKELOCK_TIMEOUT_MS);
+            try {
+                Log.v(TAG, "Executing task, " + mLateness + " ms late");
+                mRunnableImpl.run();
+            } catch (Throwable t) {
+                Log.v(TAG, "Error executing task: " + t.getMessage(), t);
+            } finally {
+                if (mWakeLock != null && mWakeLock.isHeld()) mWakeLock.release();
+                scheduleNextTick(System.currentTimeMillis());
+            }
+        }
+    };
+}
@@ -0,0 +1,198 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.scheduler;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.telephony.PhoneStateListener;
+import android.telephony.ServiceState;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.prefs.NetMonPreferences;
+
+/**
+ * Executes the runnable when the network changes, like {@link NetworkChangeScheduler}, and also at least once per interval,
+ * like {@link AlarmManagerScheduler}.
+ * <p>
+ * A burst of network changes results in a single run: each change postpones the run by a short delay, and the runs are at least
+ * {@link NetMonPreferences#PREF_MIN_POLLING_INTERVAL} apart.  Each run, whatever triggered it, restarts the interval, so we don't
+ * run again shortly after a change just because the interval was about to expire.
+ * <p>
+ * The run after a change is scheduled with the same wakeup alarm as the periodic runs, so the device can't fall asleep before it.
+ * The network state which is reported as soon as we register (the sticky connectivity broadcast, and the first service state) is not a change:
+ * it doesn't trigger a run.
+ * <p>
+ * Everything runs on a single background thread: the runs never overlap.
+ */
+public class HybridScheduler implements Scheduler {
+
+    private static final String TAG = Constants.TAG + HybridScheduler.class.getSimpleName();
+    private static final String ACTION = TAG + "_action";
+    // Wait for the network to settle for this long, in ms, after a change, before running.
+    private static final int SETTLE_DELAY = 2000;
+
+    private Context mContext;
+    private Runnable mRunnableImpl;
+    private Handler mHandler;
+    private HandlerThread mHandlerThread;
+    private AlarmManager mAlarmManager;
+    private PendingIntent mPendingIntent;
+    private TelephonyManager mTelephonyManager;
+    private int mInterval;
+    private long mLastRunTime;
+    // The phone state listener is called with the current service state as soon as it's registered.
+    private boolean mHasInitialServiceState;
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+        mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Register the broadcast receivers in a background thread
+        mHandlerThread = new HandlerThread(TAG);
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+        mContext.registerReceiver(mNetworkChangeReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION), null, mHandler);
+        mContext.registerReceiver(mAlarmReceiver, new IntentFilter(ACTION), null, mHandler);
+        mTelephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (mTelephonyManager != null) {
+            mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_SERVICE_STATE);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        mContext.unregisterReceiver(mNetworkChangeReceiver);
+        mContext.unregisterReceiver(mAlarmReceiver);
+        if (mTelephonyManager != null)
+            mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
+        if (mPendingIntent != null) mAlarmManager.cancel(mPendingIntent);
+        mHandlerThread.quit();
+    }
+
+    @Override
+    public void schedule(Runnable runnable, int interval) {
+        Log.v(TAG, "schedule at interval " + interval);
+        mRunnableImpl = runnable;
+        Intent intent = new Intent(ACTION);
+        mPendingIntent = PendingIntent.getBroadcast(mContext, TAG.hashCode(), intent, PendingIntent.FLAG_CANCEL_CURRENT);
+        setInterval(interval);
+    }
+
+    @Override
+    public void setInterval(int interval) {
+        Log.v(TAG, "setInterval " + interval);
+        mHandler.post(() -> {
+            mInterval = interval;
+            scheduleAlarm(0);
+        });
+    }
+
+    private void scheduleAlarm(int delay) {
+        Log.v(TAG, "scheduleAlarm: delay=" + delay);
+        long triggerAtMillis = SystemClock.elapsedRealtime() + delay;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) scheduleAlarmKitKat(triggerAtMillis);
+        else
+            mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, mPendingIntent);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void scheduleAlarmKitKat(long triggerAtMillis) {
+        mAlarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, mPendingIntent);
+    }
+
+    /**
+     * Run the task, and restart the interval.  Must be called on the handler thread.
+     */
+    private void runTask() {
+        // If we have bad luck, we might be created,
+        // and receive a broadcast before schedule was called
+        if (mRunnableImpl == null) return;
+        try {
+            Log.v(TAG, "Executing task");
+            mRunnableImpl.run();
+        } catch (Throwable t) {
+            Log.v(TAG, "Error executing task: " + t.getMessage(), t);
+        } finally {
+            mLastRunTime = SystemClock.elapsedRealtime();
+            scheduleAlarm(mInterval);
+        }
+    }
+
+    /**
+     * Run the task after the network has settled, and not sooner than the minimum polling interval after the last run.
+     */
+    private void onNetworkChanged() {
+        long sinceLastRun = SystemClock.elapsedRealtime() - mLastRunTime;
+        long delay = Math.max(SETTLE_DELAY, NetMonPreferences.PREF_MIN_POLLING_INTERVAL - sinceLastRun);
+        Log.v(TAG, "onNetworkChanged: will run the task in " + delay + " ms");
+        // This replaces the periodic alarm: the run restarts the interval anyway.
+        scheduleAlarm((int) delay);
+    }
+
+    private final BroadcastReceiver mAlarmReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.v(TAG, "onReceive: " + intent);
+            runTask();
+        }
+    };
+
+    private final BroadcastReceiver mNetworkChangeReceiver = new BroadcastReceiver() {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.v(TAG, "onReceive: " + intent);
+            if (isInitialStickyBroadcast()) return;
+            onNetworkChanged();
+        }
+    };
+
+    private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+
+        @Override
+        public void onServiceStateChanged(ServiceState serviceState) {
+            Log.v(TAG, "onServiceStateChanged " + serviceState);
+            if (!mHasInitialServiceState) {
+                mHasInitialServiceState = true;
+                return;
+            }
+            mHandler.post(HybridScheduler.this::onNetworkChanged);
+        }
+    };
+}
@@ -0,0 +1,195 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.scheduler;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+
+/**
+ * Runs a single task with a periodic job of the {@link JobScheduler}.  This uses less battery than the other schedulers: we hold
+ * no wake lock, and the system may run the job anywhere in a window at the end of each period, so it can wake the device once for
+ * our job and the jobs of other apps.  The period is at least 15 minutes, and the runs are not evenly spaced.
+ * <p>
+ * The job finishes once the row is collected.  A speed test started by the task keeps running after that, with its own wake lock.
+ * <p>
+ * The job doesn't require a network: the rows logged while there is no network are part of what we monitor.
+ * <p>
+ * Each row records the period we requested, and the time which actually passed since the previous run.
+ * <p>
+ * Requires Lollipop.  The flex window requires Nougat: on older devices, the job may run at any time during the period.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class JobSchedulerScheduler implements Scheduler, SampleListener {
+    private static final String TAG = Constants.TAG + JobSchedulerScheduler.class.getSimpleName();
+    private static final int JOB_ID = TAG.hashCode();
+    // The shortest period of a periodic job, before Nougat.
+    private static final long MIN_PERIOD = 15 * 60 * 1000;
+    // The flex window is this fraction of the period.
+    private static final int FLEX_DIVISOR = 4;
+
+    // The job service reaches the task through this instance.
+    private static JobSchedulerScheduler sInstance;
+
+    private Context mContext;
+    private JobScheduler mJobScheduler;
+    private ExecutorService mExecutorService;
+    private Runnable mRunnableImpl;
+    private long mPeriod;
+    private long mLastRunTime;
+    // The time which passed between the previous run and the current one, or -1 for the first run.
+    private long mAchievedInterval = -1;
+
+    @Override
+    public void onCreate(Context context) {
+        Log.v(TAG, "onCreate");
+        mContext = context;
+        mJobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        mExecutorService = Executors.newSingleThreadExecutor();
+        synchronized (JobSchedulerScheduler.class) {
+            sInstance = this;
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        synchronized (JobSchedulerScheduler.class) {
+            if (sInstance == this) sInstance = null;
+        }
+        if (mJobScheduler != null) mJobScheduler.cancel(JOB_ID);
+        mExecutorService.shutdownNow();
+    }
+
+    @Override
+    public void schedule(Runnable runnable, int interval) {
+        Log.v(TAG, "schedule at interval " + interval);
+        mRunnableImpl = runnable;
+        setInterval(interval);
+        // Like the other schedulers, log a first row right away, rather than at the end of the first period.
+        mExecutorService.execute(this::runTask);
+    }
+
+    @Override
+    public void setInterval(int interval) {
+        if (mJobScheduler == null) return;
+        long period = Math.max(interval, getMinPeriod());
+        Log.v(TAG, "setInterval " + interval + ": will schedule a job every " + period + " ms");
+        synchronized (this) {
+            mPeriod = period;
+        }
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID, new ComponentName(mContext, SamplingJobService.class));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) setPeriodicNougat(builder, period);
+        else
+            builder.setPeriodic(period);
+        if (mJobScheduler.schedule(builder.build()) != JobScheduler.RESULT_SUCCESS) {
+            Log.w(TAG, "setInterval: could not schedule the job");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private static void setPeriodicNougat(JobInfo.Builder builder, long period) {
+        builder.setPeriodic(period, Math.max(JobInfo.getMinFlexMillis(), period / FLEX_DIVISOR));
+    }
+
+    private static long getMinPeriod() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) return getMinPeriodNougat();
+        return MIN_PERIOD;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private static long getMinPeriodNougat() {
+        return JobInfo.getMinPeriodMillis();
+    }
+
+    /**
+     * Add the requested and achieved intervals of the current run to its row.
+     */
+    @Override
+    public synchronized void onSampleCollected(ContentValues values) {
+        values.put(NetMonColumns.REQUESTED_INTERVAL, mPeriod);
+        if (mAchievedInterval >= 0) values.put(NetMonColumns.ACHIEVED_INTERVAL, mAchievedInterval);
+    }
+
+    private void runTask() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            mAchievedInterval = mLastRunTime > 0 ? now - mLastRunTime : -1;
+            mLastRunTime = now;
+        }
+        try {
+            Log.v(TAG, "Executing task, " + mAchievedInterval + " ms after the previous one");
+            mRunnableImpl.run();
+        } catch (Throwable t) {
+            Log.v(TAG, "Error executing task: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * Called by the {@link SamplingJobService} when the job starts.
+     *
+     * @return true if the task will run in the background, and the job service will be notified when it's done.
+     */
+    static boolean onStartJob(JobService jobService, JobParameters params) {
+        JobSchedulerScheduler scheduler;
+        synchronized (JobSchedulerScheduler.class) {
+            scheduler = sInstance;
+        }
+        if (scheduler == null) {
+            // The monitoring service has stopped since it scheduled the job, maybe because our process was killed.  The job
+            // outlives the process, so cancel it, or it keeps waking the device every period for nothing.
+            Log.v(TAG, "onStartJob: not scheduled anymore");
+            JobScheduler jobScheduler = (JobScheduler) jobService.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            if (jobScheduler != null) jobScheduler.cancel(JOB_ID);
+            return false;
+        }
+        try {
+            scheduler.mExecutorService.execute(() -> {
+                scheduler.runTask();
+                // The task may have started a speed test which is still running in the background.  It holds its own wake lock, so
+                // the device stays awake until it's done, even though the job is finished.
+                jobService.jobFinished(params, false);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.v(TAG, "onStartJob: the scheduler was destroyed");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.scheduler;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.Log;
+
+import ca.rmen.android.networkmonitor.Constants;
+
+/**
+ * Runs the task of the {@link JobSchedulerScheduler} when the system starts its job.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SamplingJobService extends JobService {
+    private static final String TAG = Constants.TAG + SamplingJobService.class.getSimpleName();
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.v(TAG, "onStartJob: " + params.getJobId());
+        return JobSchedulerScheduler.onStartJob(this, params);
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.v(TAG, "onStopJob: " + params.getJobId());
+        // The task can't be interrupted.  The job runs again at the next period anyway.
+        return false;
+    }
+}
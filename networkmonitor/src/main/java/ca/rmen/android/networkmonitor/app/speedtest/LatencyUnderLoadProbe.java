@@ -0,0 +1,201 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import android.util.Log;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.service.probe.ProbeEngine;
+
+/**
+ * Measures how much a speed test increases the latency to the speed test server (bufferbloat).
+ * <p>
+ * Before the transfer, we measure the idle round-trip time with a few TCP connections to the server.  During the transfer, from the
+ * first bytes transferred, we connect to the server every 100 ms: the probes made while the transfer connections are still opening
+ * would be idle probes.  The ratio between the median loaded round-trip time and the idle round-trip time tells how
+ * much the network queues up packets when the link is saturated.
+ * <p>
+ * A loaded probe which times out is recorded at the timeout: dropping it would hide the worst of the bufferbloat.
+ */
+public class LatencyUnderLoadProbe {
+    private static final String TAG = Constants.TAG + LatencyUnderLoadProbe.class.getSimpleName();
+
+    private static final long PROBE_INTERVAL_MS = 100;
+    private static final long PROBE_TIMEOUT_MS = 1000;
+    private static final int IDLE_PROBE_COUNT = 5;
+
+    public static class Result {
+        // Round-trip times in ms, or -1 if we couldn't measure them.
+        public final long idleRtt;
+        public final long loadedRttP50;
+        public final long loadedRttP95;
+
+        private Result(long idleRtt, long loadedRttP50, long loadedRttP95) {
+            this.idleRtt = idleRtt;
+            this.loadedRttP50 = loadedRttP50;
+            this.loadedRttP95 = loadedRttP95;
+        }
+
+        public boolean isValid() {
+            return idleRtt >= 0 && loadedRttP50 >= 0;
+        }
+
+        /**
+         * @return how many times longer the median round-trip time was during the transfer than before it.
+         */
+        public float getRatio() {
+            return (float) loadedRttP50 / Math.max(1, idleRtt);
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return Result.class.getSimpleName() + "[idleRtt=" + idleRtt + ", loadedRttP50=" + loadedRttP50 + ", loadedRttP95=" + loadedRttP95 + "]";
+        }
+    }
+
+    private final List<ProbeEngine.Target> mTargets;
+    private final List<Long> mLoadedRtts = new ArrayList<>();
+    private ScheduledExecutorService mExecutorService;
+    private long mIdleRtt = -1;
+    private volatile boolean mIsTransferStarted;
+
+    private LatencyUnderLoadProbe(ProbeEngine.Target target) {
+        mTargets = Collections.singletonList(target);
+    }
+
+    /**
+     * @return a probe for the server of the given download test, or null if the download url is invalid.
+     */
+    @Nullable
+    public static LatencyUnderLoadProbe create(SpeedTestDownloadConfig config) {
+        return create(config.url);
+    }
+
+    /**
+     * @return a probe for the server of the given upload test, or null if the upload url is invalid.
+     */
+    @Nullable
+    public static LatencyUnderLoadProbe create(SpeedTestUploadConfig config) {
+        if (config.isHttp()) return create(config.url);
+        return new LatencyUnderLoadProbe(new ProbeEngine.Target(config.server, config.port));
+    }
+
+    @Nullable
+    private static LatencyUnderLoadProbe create(String url) {
+        try {
+            URL parsedUrl = new URL(url);
+            int port = parsedUrl.getPort() > 0 ? parsedUrl.getPort() : parsedUrl.getDefaultPort();
+            return new LatencyUnderLoadProbe(new ProbeEngine.Target(parsedUrl.getHost(), port));
+        } catch (MalformedURLException e) {
+            Log.v(TAG, "create: invalid url " + url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Measure the idle round-trip time, then start probing in the background.  Call this just before starting the transfer.
+     */
+    public void start() {
+        List<Long> idleRtts = new ArrayList<>(IDLE_PROBE_COUNT);
+        for (int i = 0; i < IDLE_PROBE_COUNT; i++) {
+            long rtt = probe();
+            if (rtt >= 0) idleRtts.add(rtt);
+        }
+        mIdleRtt = getPercentile(idleRtts, 50);
+        Log.v(TAG, "start: idle rtt " + mIdleRtt + " ms");
+        mExecutorService = Executors.newSingleThreadScheduledExecutor();
+        // A slow probe delays the next one, rather than having the missed probes run back to back.
+        mExecutorService.scheduleWithFixedDelay(() -> {
+            if (!mIsTransferStarted) return;
+            long rtt = probeUnderLoad();
+            if (rtt >= 0) {
+                synchronized (mLoadedRtts) {
+                    mLoadedRtts.add(rtt);
+                }
+            }
+        }, 0, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Call this when the transfer has sent or received its first bytes.  The loaded probes start then.
+     */
+    public void onTransferStarted() {
+        Log.v(TAG, "onTransferStarted");
+        mIsTransferStarted = true;
+    }
+
+    /**
+     * Stop probing.  Call this as soon as the transfer is done.
+     */
+    @NonNull
+    public Result stop() {
+        if (mExecutorService != null) mExecutorService.shutdownNow();
+        synchronized (mLoadedRtts) {
+            Result result = new Result(mIdleRtt, getPercentile(mLoadedRtts, 50), getPercentile(mLoadedRtts, 95));
+            Log.v(TAG, "stop: " + result + " from " + mLoadedRtts.size() + " loaded probes");
+            return result;
+        }
+    }
+
+    /**
+     * @return the time to connect to the server, in ms, or -1 if we couldn't connect.
+     */
+    private long probe() {
+        ProbeEngine.Result result = ProbeEngine.probe(mTargets, PROBE_TIMEOUT_MS).get(0);
+        return result.status == ProbeEngine.Status.FAIL ? -1 : result.connectTime;
+    }
+
+    /**
+     * @return the time to connect to the server, in ms, {@link #PROBE_TIMEOUT_MS} if the connection timed out, or -1 if it failed otherwise.
+     */
+    private long probeUnderLoad() {
+        ProbeEngine.Result result = ProbeEngine.probe(mTargets, PROBE_TIMEOUT_MS).get(0);
+        if (result.status != ProbeEngine.Status.FAIL) return result.connectTime;
+        if (ProbeEngine.ERROR_TIMEOUT.equals(result.error)) return PROBE_TIMEOUT_MS;
+        return -1;
+    }
+
+    /**
+     * @return the given percentile of the round-trip times, using the nearest-rank method, or -1 if there are none.
+     */
+    private static long getPercentile(List<Long> rtts, int percentile) {
+        if (rtts.isEmpty()) return -1;
+        List<Long> sortedRtts = new ArrayList<>(rtts);
+        Collections.sort(sortedRtts);
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedRtts.size());
+        return sortedRtts.get(Math.max(0, rank - 1));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
+
+/**
+ * Runs a transfer over several connections at the same time, and combines their results.  The connections all start together,
+ * and the transfer time runs until the last one is done.
+ */
+class ParallelTransfer {
+    private static final String TAG = Constants.TAG + ParallelTransfer.class.getSimpleName();
+
+    enum Direction {
+        DOWNLOAD, UPLOAD
+    }
+
+    interface StreamTransfer {
+        /**
+         * Transfer data over one connection.
+         *
+         * @param recorder the bytes transferred must be added to this recorder, which is shared by all the connections.  If the
+         *                 recorder says the test is done, the transfer should stop.
+         * @return the result of this connection.
+         */
+        @NonNull
+        SpeedTestResult transfer(ThroughputRecorder recorder);
+    }
+
+    /**
+     * @param onTransferStarted if not null, run when the first bytes are transferred, over any of the connections.
+     */
+    @NonNull
+    static SpeedTestResult run(Direction direction, int streams, long duration, long maxBytes, @Nullable Runnable onTransferStarted,
+                               StreamTransfer streamTransfer) {
+        streams = Math.max(1, streams);
+        ExecutorService executorService = Executors.newFixedThreadPool(streams);
+        CountDownLatch startSignal = new CountDownLatch(1);
+        ThroughputRecorder recorder = new ThroughputRecorder(duration, maxBytes, onTransferStarted);
+        List<Future<SpeedTestResult>> futures = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            futures.add(executorService.submit(() -> {
+                startSignal.await();
+                TrafficCounter.tagThread();
+                return streamTransfer.transfer(recorder);
+            }));
+        }
+        long before = System.currentTimeMillis();
+        TrafficCounter trafficCounter = new TrafficCounter(direction);
+        startSignal.countDown();
+        List<SpeedTestResult> streamResults = new ArrayList<>(streams);
+        try {
+            for (Future<SpeedTestResult> future : futures) {
+                streamResults.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            Log.d(TAG, "run: Caught an exception", e);
+            return new SpeedTestResult(0, 0, System.currentTimeMillis() - before, SpeedTestStatus.FAILURE);
+        } finally {
+            executorService.shutdownNow();
+        }
+        long after = System.currentTimeMillis();
+        long trafficBytes = trafficCounter.getBytes();
+
+        // If one of the connections failed, the others had the link to themselves for part of the test: the speed is not reliable.
+        // The status says so: the bytes are still counted the same way, so that the byte count method doesn't depend on the status.
+        SpeedTestStatus status = SpeedTestStatus.SUCCESS;
+        long fileBytes = 0;
+        for (SpeedTestResult streamResult : streamResults) {
+            fileBytes += streamResult.fileBytes;
+            if (status == SpeedTestStatus.SUCCESS) status = streamResult.status;
+        }
+        SpeedTestResult result = new SpeedTestResult(trafficBytes, fileBytes, after - before, status, streamResults, recorder.getIntervalSpeedsMbps());
+        Log.v(TAG, "run: " + direction + ": " + result);
+        return result;
+    }
+}
@@ -24,37 +24,53 @@
 package ca.rmen.android.networkmonitor.app.speedtest;
 
 import android.content.SharedPreferences;
-import android.net.TrafficStats;
 import android.os.AsyncTask;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import ca.rmen.android.networkmonitor.Constants;
 import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
+import ca.rmen.android.networkmonitor.util.IoUtil;
 
 
 /**
  * Downloads a file and calculates the download speed.
+ * <p>
+ * The file may be downloaded over several connections at the same time, which is needed to saturate fast links: each connection
+ * downloads the whole file, and the speed is computed from the bytes received over all of them.
+ * <p>
+ * The data is read straight from the connection's stream into reusable buffers, and discarded. The file is only saved by the settings screen, or when it is missing,
+ * because the upload test needs it.
  */
 public class SpeedTestDownload {
     private static final String TAG = Constants.TAG + SpeedTestDownload.class.getSimpleName();
 
     // The maximum connection and read timeout 
     private static final int TIMEOUT = 5000;
+    private static final int BUFFER_SIZE = 65536;
     private static final String PREF_SPEED_TEST_LAST_DOWNLOAD_RESULT = "PREF_SPEED_TEST_LAST_DOWNLOAD_RESULT";
+    // We keep the buffers from one test to the next, so a test doesn't allocate several large arrays each time it runs.
+    private static final Queue<byte[]> sBufferPool = new ConcurrentLinkedQueue<>();
 
     interface SpeedTestDownloadCallback {
         void onSpeedTestResult(@NonNull SpeedTestResult result);
     }
 
+    /**
+     * Download the file to {@link SpeedTestDownloadConfig#file} in the background, over a single connection.
+     */
     public static void download(SpeedTestDownloadConfig config, SpeedTestDownloadCallback callback) {
         new DownloadAsyncTask(callback).execute(config);
     }
@@ -69,7 +85,7 @@ public class SpeedTestDownload {
 
         @Override
         protected SpeedTestResult doInBackground(SpeedTestDownloadConfig... speedTestDownloadConfigs) {
-            return download(speedTestDownloadConfigs[0]);
+            return downloadToFile(speedTestDownloadConfigs[0], null);
         }
 
         @Override
@@ -78,9 +94,22 @@ public class SpeedTestDownload {
         }
     }
 
+    /**
+     * Download the file, over the number of connections given in the config, discarding the data.
+     * If the file used by the upload test is missing, it is downloaded over a single connection and saved instead.  The duration and
+     * maximum number of bytes of the config still apply: the saved file may then be truncated.
+     *
+     * @param onTransferStarted if not null, run when the first bytes are received.
+     */
     @NonNull
-    public static SpeedTestResult download(SpeedTestDownloadConfig config) {
-        Log.v(TAG, "download " + config);
+    public static SpeedTestResult download(SpeedTestDownloadConfig config, @Nullable Runnable onTransferStarted) {
+        if (!config.file.exists()) return downloadToFile(config, onTransferStarted);
+        return downloadAndDiscard(config, onTransferStarted);
+    }
+
+    @NonNull
+    private static SpeedTestResult downloadToFile(SpeedTestDownloadConfig config, @Nullable Runnable onTransferStarted) {
+        Log.v(TAG, "downloadToFile " + config);
         URL url;
         try {
             url = new URL(config.url);
@@ -91,32 +120,29 @@ public class SpeedTestDownload {
 
         SpeedTestStatus status = SpeedTestStatus.UNKNOWN;
         InputStream inputStream = null;
-        OutputStream outputStream = null;
+        FileOutputStream outputStream = null;
+        byte[] buffer = acquireBuffer();
         long totalRead = 0;
         long before = System.currentTimeMillis();
-        long rxBytesBefore = TrafficStats.getTotalRxBytes();
+        TrafficCounter trafficCounter = new TrafficCounter(ParallelTransfer.Direction.DOWNLOAD);
+        ThroughputRecorder recorder = new ThroughputRecorder(config.duration, config.maxBytes, onTransferStarted);
+        URLConnection connection = null;
+        TrafficCounter.tagThread();
         try {
-            URLConnection connection = url.openConnection();
-            Log.v(TAG, "Opened connection");
+            connection = openConnection(url);
             outputStream = new FileOutputStream(config.file);
-            connection.setConnectTimeout(TIMEOUT);
-            connection.setReadTimeout(TIMEOUT);
-            connection.addRequestProperty("Cache-Control", "no-cache");
-            connection.setUseCaches(false);
             Log.v(TAG, "Will open input stream");
             inputStream = connection.getInputStream();
-            byte[] buffer = new byte[1048576];
             int read;
-            do {
-                read = inputStream.read(buffer);
-                if (read > 0) outputStream.write(buffer, 0, read);
+            while (!recorder.isDone() && (read = inputStream.read(buffer)) >= 0) {
                 totalRead += read;
-
-            } while (read > 0);
+                recorder.onBytesTransferred(read);
+                outputStream.write(buffer, 0, read);
+            }
             if (totalRead > 0) status = SpeedTestStatus.SUCCESS;
             long after = System.currentTimeMillis();
-            long rxBytesAfter = TrafficStats.getTotalRxBytes();
-            SpeedTestResult result = new SpeedTestResult(rxBytesAfter - rxBytesBefore, totalRead, after - before, status);
+            SpeedTestResult result = new SpeedTestResult(trafficCounter.getBytes(), totalRead, after - before, status,
+                    Collections.emptyList(), recorder.getIntervalSpeedsMbps());
             Log.v(TAG, "success: " + result);
             return result;
         } catch (Throwable t) {
@@ -124,24 +150,96 @@ public class SpeedTestDownload {
             long after = System.currentTimeMillis();
             return new SpeedTestResult(0, totalRead, after - before, SpeedTestStatus.FAILURE);
         } finally {
-            if (inputStream != null) {
-                try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    Log.w(TAG, "download: Could not close stream", e);
-                }
-            }
-            if (outputStream != null) {
+            IoUtil.closeSilently(inputStream, outputStream);
+            // Don't let the connection finish reading a file we stopped in the middle of.
+            if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).disconnect();
+            releaseBuffer(buffer);
+            TrafficCounter.untagThread();
+            Log.v(TAG, "download: END");
+        }
+    }
+
+    /**
+     * Download the file over one or more connections at the same time, without saving it.
+     * If the config has a duration, the connections download until the duration has passed, or until the speed stops changing.
+     * If the config has a maximum number of bytes, the connections download until they have received that much, together.
+     */
+    @NonNull
+    private static SpeedTestResult downloadAndDiscard(SpeedTestDownloadConfig config, @Nullable Runnable onTransferStarted) {
+        Log.v(TAG, "downloadAndDiscard " + config);
+        final URL url;
+        try {
+            url = new URL(config.url);
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "download: incorrect url " + config.url, e);
+            return new SpeedTestResult(0, 0, 0, SpeedTestStatus.INVALID_FILE);
+        }
+        boolean isBounded = config.duration > 0 || config.maxBytes > 0;
+        return ParallelTransfer.run(ParallelTransfer.Direction.DOWNLOAD, config.streams, config.duration, config.maxBytes, onTransferStarted,
+                recorder -> downloadStream(url, recorder, isBounded));
+    }
+
+    /**
+     * Download the file, discarding the data.  If the test has a maximum duration or number of bytes, we stop when the recorder says
+     * the test is done, downloading the file again as many times as needed until then.
+     *
+     * @param recorder the bytes we receive are added to this recorder, which is shared by all the connections.
+     * @param isBounded if true, we download until the test is done, rather than downloading the file once.
+     */
+    @NonNull
+    private static SpeedTestResult downloadStream(URL url, ThroughputRecorder recorder, boolean isBounded) {
+        byte[] buffer = acquireBuffer();
+        long totalRead = 0;
+        long before = System.currentTimeMillis();
+        try {
+            do {
+                URLConnection connection = openConnection(url);
+                InputStream inputStream = null;
                 try {
-                    outputStream.close();
-                } catch (IOException e) {
-                    Log.w(TAG, "download: Could not close stream", e);
+                    inputStream = connection.getInputStream();
+                    int read;
+                    while (!recorder.isDone() && (read = inputStream.read(buffer)) >= 0) {
+                        totalRead += read;
+                        recorder.onBytesTransferred(read);
+                    }
+                } finally {
+                    IoUtil.closeSilently(inputStream);
+                    // Don't let the connection finish reading a file we stopped in the middle of.
+                    if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).disconnect();
                 }
-            }
-            Log.v(TAG, "download: END");
+            } while (isBounded && !recorder.isDone());
+            SpeedTestStatus status = totalRead > 0 ? SpeedTestStatus.SUCCESS : SpeedTestStatus.UNKNOWN;
+            return new SpeedTestResult(0, totalRead, System.currentTimeMillis() - before, status);
+        } catch (Throwable t) {
+            Log.d(TAG, "downloadStream: Caught an exception", t);
+            return new SpeedTestResult(0, totalRead, System.currentTimeMillis() - before, SpeedTestStatus.FAILURE);
+        } finally {
+            releaseBuffer(buffer);
         }
     }
 
+    /**
+     * @return a buffer from the pool, or a new one if all the buffers are in use.
+     */
+    private static byte[] acquireBuffer() {
+        byte[] buffer = sBufferPool.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        sBufferPool.offer(buffer);
+    }
+
+    private static URLConnection openConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        Log.v(TAG, "Opened connection");
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.addRequestProperty("Cache-Control", "no-cache");
+        connection.setUseCaches(false);
+        return connection;
+    }
+
     /**
      * Persist this speed test result to the shared preferences.
      *
@@ -150,7 +248,9 @@ public class SpeedTestDownload {
     static void save(SharedPreferences prefs, SpeedTestResult result) {
         SharedPreferences.Editor editor = prefs.edit();
         editor.putLong(PREF_SPEED_TEST_LAST_DOWNLOAD_RESULT + "_TOTAL_BYTES", result.totalBytes);
-        editor.putLong(PREF_SPEED_TEST_LAST_DOWNLOAD_RESULT + "_FILE_BYTES", result.fileBytes);
+        // We save the size of the file, not the bytes received over all the connections.
+        long fileBytes = result.streamResults.isEmpty() ? result.fileBytes : result.streamResults.get(0).fileBytes;
+        editor.putLong(PREF_SPEED_TEST_LAST_DOWNLOAD_RESULT + "_FILE_BYTES", fileBytes);
         editor.putLong(PREF_SPEED_TEST_LAST_DOWNLOAD_RESULT + "_TRANSFER_TIME", result.transferTime);
         editor.putInt(PREF_SPEED_TEST_LAST_DOWNLOAD_RESULT + "_STATUS", result.status.ordinal());
         editor.apply();
@@ -32,14 +32,33 @@ import androidx.annotation.NonNull;
 public class SpeedTestDownloadConfig {
     final String url;
     final File file;
+    final int streams;
+    final long duration;
+    final long maxBytes;
 
     /**
      * @param url the url of the file to download
      * @param file where we will save the downloaded file.
      */
     public SpeedTestDownloadConfig(String url, File file) {
+        this(url, file, 1, 0, 0);
+    }
+
+    /**
+     * @param url the url of the file to download
+     * @param file where we will save the downloaded file, when downloading with a single stream.
+     * @param streams the number of connections which download the file at the same time.
+     * @param duration the maximum duration of the test in milliseconds, during which the file is downloaded again as many times
+     *                 as needed.  0 to download the file once, however long it takes.
+     * @param maxBytes the maximum number of bytes to download over all the connections, downloading the file again as many times as
+     *                 needed.  0 for no maximum.
+     */
+    public SpeedTestDownloadConfig(String url, File file, int streams, long duration, long maxBytes) {
         this.url = url;
         this.file = file;
+        this.streams = streams;
+        this.duration = duration;
+        this.maxBytes = maxBytes;
     }
 
     /**
@@ -53,6 +72,6 @@ public class SpeedTestDownloadConfig {
     @Override
     @NonNull
     public String toString() {
-        return SpeedTestDownloadConfig.class.getSimpleName() + "[url=" + url + "]";
+        return SpeedTestDownloadConfig.class.getSimpleName() + "[url=" + url + ", streams=" + streams + ", duration=" + duration + ", maxBytes=" + maxBytes + "]";
     }
 }
\ No newline at end of file
@@ -26,13 +26,11 @@ package ca.rmen.android.networkmonitor.app.speedtest;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.preference.PreferenceManager;
-import android.provider.BaseColumns;
 import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.SignalStrength;
@@ -40,7 +38,6 @@ import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import ca.rmen.android.networkmonitor.Constants;
-import ca.rmen.android.networkmonitor.provider.NetMonColumns;
 import ca.rmen.android.networkmonitor.util.NetMonSignalStrength;
 import ca.rmen.android.networkmonitor.util.TelephonyUtil;
 
@@ -53,6 +50,7 @@ public class SpeedTestExecutionDecider {
 
     private final Context mContext;
     private final SpeedTestPreferences mPreferences;
+    private final SpeedTestHistory mHistory;
 
     private final NetMonSignalStrength mNetMonSignalStrength;
     private int mCurrentCellSignalStrengthDbm;
@@ -62,13 +60,11 @@ public class SpeedTestExecutionDecider {
     private final WifiManager mWifiManager;
     private final ConnectivityManager mConnectivityManager;
 
-    // Using this selection in a query will make the query only return results in which a speed test was performed.
-    private static final String QUERY_FILTER_HAS_SPEED_TEST = "CAST(" + NetMonColumns.DOWNLOAD_SPEED + " AS REAL) > 0 OR CAST(" + NetMonColumns.UPLOAD_SPEED + " AS REAL) > 0";
-
     public SpeedTestExecutionDecider(Context context) {
         Log.v(TAG, "onCreate");
         mContext = context;
         mPreferences = SpeedTestPreferences.getInstance(context);
+        mHistory = SpeedTestHistory.getInstance(context);
         mTelephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
         mWifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
         mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -110,7 +106,7 @@ public class SpeedTestExecutionDecider {
      * @return true if the current network type is different from the network type during the last speed test.
      */
     private boolean hasNetworkTypeChanged() {
-        String lastLoggedNetworkType = readLastLoggedValue(NetMonColumns.NETWORK_TYPE);
+        String lastLoggedNetworkType = mHistory.getNetworkType();
         String currentNetworkType = TelephonyUtil.getNetworkType(mContext);
 
         if (currentNetworkType == null) return false;
@@ -138,7 +134,7 @@ public class SpeedTestExecutionDecider {
      */
     private boolean hasCellSignalStrengthChanged() {
         Log.v(TAG, "hasCellSignalStrengthChanged by: " + SIGNAL_STRENGTH_VARIATION_THRESHOLD_DBM + '?');
-        String lastLoggedCellSignalStrength = readLastLoggedValue(NetMonColumns.CELL_SIGNAL_STRENGTH_DBM);
+        String lastLoggedCellSignalStrength = mHistory.getCellSignalStrengthDbm();
         return lastLoggedCellSignalStrength != null &&
                 signalStrengthChangeExceedsThreshold(Integer.valueOf(lastLoggedCellSignalStrength), mCurrentCellSignalStrengthDbm);
     }
@@ -150,7 +146,7 @@ public class SpeedTestExecutionDecider {
         Log.v(TAG, "hasWifiSignalStrengthChanged by: " + SIGNAL_STRENGTH_VARIATION_THRESHOLD_DBM + '?');
         WifiInfo connectionInfo = mWifiManager.getConnectionInfo();
         int currentWifiSignalStrengthDbm = connectionInfo.getRssi();
-        String lastLoggedWifiSignalStrength = readLastLoggedValue(NetMonColumns.WIFI_RSSI);
+        String lastLoggedWifiSignalStrength = mHistory.getWifiRssi();
         return lastLoggedWifiSignalStrength != null &&
                 signalStrengthChangeExceedsThreshold(Integer.valueOf(lastLoggedWifiSignalStrength), currentWifiSignalStrengthDbm);
     }
@@ -170,32 +166,16 @@ public class SpeedTestExecutionDecider {
     }
 
     /**
-     * @return true if enough network monitor tests, without speed tests, have been logged.
+     * @return true if enough network monitor tests, without speed tests, have been logged, or if no speed test has been logged yet.
      */
     private boolean isIntervalExceeded() {
-        int numberOfRecordsSinceLastSpeedTest = readNumberOfRecordsSinceLastSpeedTest();
+        int numberOfRecordsSinceLastSpeedTest = mHistory.getRowsSinceSpeedTest();
         Log.v(TAG, "isIntervalExceeded: numberOfRecordsSinceLastSpeedTest: " + numberOfRecordsSinceLastSpeedTest
                 + " vs speed test interval: " + mPreferences.getSpeedTestInterval());
         return (numberOfRecordsSinceLastSpeedTest < 0)
                 || (numberOfRecordsSinceLastSpeedTest >= mPreferences.getSpeedTestInterval() - 1);
     }
 
-    private int readNumberOfRecordsSinceLastSpeedTest() {
-        String idOfLatestSpeedTest = readLastLoggedValue(BaseColumns._ID);
-        if (idOfLatestSpeedTest == null) return 0;
-        String orderBy = BaseColumns._ID + " DESC";
-        String selection = BaseColumns._ID + " > " + idOfLatestSpeedTest;
-        Cursor cursor = mContext.getContentResolver().query(NetMonColumns.CONTENT_URI, null, selection, null, orderBy);
-        if (cursor != null) {
-            try {
-                return cursor.getCount();
-            } finally {
-                cursor.close();
-            }
-        }
-        return 0;
-    }
-
     private void registerPhoneStateListener() {
         Log.v(TAG, "registerPhoneStateListener");
         mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_SIGNAL_STRENGTHS | PhoneStateListener.LISTEN_SERVICE_STATE);
@@ -206,25 +186,6 @@ public class SpeedTestExecutionDecider {
         mTelephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
     }
 
-    /**
-     * @return the most recent value we logged for the given columnName, which matches the given selection.  May return null.
-     */
-    private String readLastLoggedValue(String columnName) {
-        String[] projection = new String[]{columnName};
-        String orderBy = BaseColumns._ID + " DESC";
-        Cursor cursor = mContext.getContentResolver().query(NetMonColumns.CONTENT_URI, projection, QUERY_FILTER_HAS_SPEED_TEST, null, orderBy);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToFirst()) {
-                    return cursor.getString(0);
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-        return null;
-    }
-
     private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
         @Override
         public void onSignalStrengthsChanged(SignalStrength signalStrength) {
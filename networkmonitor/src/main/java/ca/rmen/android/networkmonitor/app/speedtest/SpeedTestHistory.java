@@ -0,0 +1,201 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import org.greenrobot.eventbus.Subscribe;
+
+import java.util.regex.Pattern;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.bus.NetMonBus;
+import ca.rmen.android.networkmonitor.app.service.journal.SampleJournalCompactor;
+import ca.rmen.android.networkmonitor.provider.NetMonColumns;
+import ca.rmen.android.networkmonitor.provider.NetMonProvider;
+
+/**
+ * Remembers the values logged with the last speed test, and the number of rows logged since then, so that the
+ * {@link SpeedTestExecutionDecider} doesn't have to query the DB on every decision.
+ * <p>
+ * The state is read from the DB once, the first time it's needed, and is then kept up to date with each row the service collects.
+ * It's read again if another component deletes or imports rows.
+ */
+public class SpeedTestHistory {
+    private static final String TAG = Constants.TAG + SpeedTestHistory.class.getSimpleName();
+
+    // Using this selection in a query will make the query only return results in which a speed test was performed: the speed
+    // starts with a digit, unlike the value logged when the test is disabled.  It compares the columns themselves, so it can use their indexes.
+    private static final String QUERY_FILTER_HAS_SPEED_TEST = "(" + NetMonColumns.DOWNLOAD_SPEED + " >= '0' AND " + NetMonColumns.DOWNLOAD_SPEED + " < ':')"
+            + " OR (" + NetMonColumns.UPLOAD_SPEED + " >= '0' AND " + NetMonColumns.UPLOAD_SPEED + " < ':')";
+    // The speed is the number at the start of the value, ex: "24.310 (8.201 / 7.995 / 8.114)".
+    private static final Pattern SPEED_PATTERN = Pattern.compile("^\\d");
+    static final int NO_SPEED_TEST = -1;
+
+    private static SpeedTestHistory INSTANCE = null;
+
+    private final Context mContext;
+    private boolean mIsLoaded;
+    private String mNetworkType;
+    private String mCellSignalStrengthDbm;
+    private String mWifiRssi;
+    private int mRowsSinceSpeedTest = NO_SPEED_TEST;
+
+    public static synchronized SpeedTestHistory getInstance(Context context) {
+        if (INSTANCE == null) {
+            INSTANCE = new SpeedTestHistory(context.getApplicationContext());
+        }
+        return INSTANCE;
+    }
+
+    private SpeedTestHistory(Context context) {
+        mContext = context;
+        NetMonBus.getBus().register(this);
+    }
+
+    /**
+     * Call this with each row the service collects, before the next row is collected.
+     */
+    public synchronized void onSampleCollected(ContentValues values) {
+        load();
+        if (hasSpeedTest(values)) {
+            mNetworkType = values.getAsString(NetMonColumns.NETWORK_TYPE);
+            mCellSignalStrengthDbm = values.getAsString(NetMonColumns.CELL_SIGNAL_STRENGTH_DBM);
+            mWifiRssi = values.getAsString(NetMonColumns.WIFI_RSSI);
+            mRowsSinceSpeedTest = 0;
+        } else if (mRowsSinceSpeedTest != NO_SPEED_TEST) {
+            mRowsSinceSpeedTest++;
+        }
+    }
+
+    /**
+     * @return the network type logged with the last speed test, or null if there was no speed test.
+     */
+    synchronized String getNetworkType() {
+        load();
+        return mNetworkType;
+    }
+
+    /**
+     * @return the cell signal strength logged with the last speed test, or null if there was no speed test or no value.
+     */
+    synchronized String getCellSignalStrengthDbm() {
+        load();
+        return mCellSignalStrengthDbm;
+    }
+
+    /**
+     * @return the wifi signal strength logged with the last speed test, or null if there was no speed test or no value.
+     */
+    synchronized String getWifiRssi() {
+        load();
+        return mWifiRssi;
+    }
+
+    /**
+     * @return the number of rows logged since the last speed test, or {@link #NO_SPEED_TEST} if no speed test was logged.
+     */
+    synchronized int getRowsSinceSpeedTest() {
+        load();
+        return mRowsSinceSpeedTest;
+    }
+
+    /**
+     * Other components may have deleted or imported rows: we'll need to read the state again.
+     */
+    @Subscribe
+    public void onDBOperationEnded(NetMonBus.DBOperationEnded event) {
+        Log.v(TAG, "onDBOperationEnded: " + event);
+        if (event.isDataChanged) {
+            synchronized (this) {
+                mIsLoaded = false;
+            }
+        }
+    }
+
+    /**
+     * Read the last speed test, using the indexes of the speed columns, then count the rows after it, using the id.
+     * The rows still waiting in the journal are written to the DB first, so they're counted too.
+     */
+    private void load() {
+        if (mIsLoaded) return;
+        SampleJournalCompactor.flushPending();
+        mNetworkType = null;
+        mCellSignalStrengthDbm = null;
+        mWifiRssi = null;
+        mRowsSinceSpeedTest = NO_SPEED_TEST;
+        String[] projection = new String[]{
+                BaseColumns._ID,
+                NetMonColumns.NETWORK_TYPE,
+                NetMonColumns.CELL_SIGNAL_STRENGTH_DBM,
+                NetMonColumns.WIFI_RSSI};
+        Uri uri = NetMonColumns.CONTENT_URI.buildUpon().appendQueryParameter(NetMonProvider.QUERY_PARAMETER_LIMIT, "1").build();
+        Cursor cursor = mContext.getContentResolver().query(uri, projection, QUERY_FILTER_HAS_SPEED_TEST, null, BaseColumns._ID + " DESC");
+        long speedTestId = -1;
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    speedTestId = cursor.getLong(0);
+                    mNetworkType = cursor.getString(1);
+                    mCellSignalStrengthDbm = cursor.getString(2);
+                    mWifiRssi = cursor.getString(3);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (speedTestId >= 0) mRowsSinceSpeedTest = countRowsAfter(speedTestId);
+        mIsLoaded = true;
+        Log.v(TAG, "load: " + mRowsSinceSpeedTest + " rows since the last speed test, on " + mNetworkType);
+    }
+
+    private int countRowsAfter(long id) {
+        Cursor cursor = mContext.getContentResolver().query(NetMonColumns.CONTENT_URI, new String[]{"COUNT(*)"},
+                BaseColumns._ID + " > ?", new String[]{String.valueOf(id)}, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) return cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if the row has a speed, like the rows the {@link #QUERY_FILTER_HAS_SPEED_TEST} selection returns.
+     */
+    private static boolean hasSpeedTest(ContentValues values) {
+        return isSpeed(values.getAsString(NetMonColumns.DOWNLOAD_SPEED)) || isSpeed(values.getAsString(NetMonColumns.UPLOAD_SPEED));
+    }
+
+    private static boolean isSpeed(String value) {
+        return value != null && SPEED_PATTERN.matcher(value).find();
+    }
+}
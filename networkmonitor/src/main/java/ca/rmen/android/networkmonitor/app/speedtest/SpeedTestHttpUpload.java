@@ -0,0 +1,130 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import android.util.Log;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
+import ca.rmen.android.networkmonitor.util.IoUtil;
+
+/**
+ * Sends data to a url with an HTTP POST, and calculates the upload speed.
+ * <p>
+ * The data is generated rather than read from a file: a random, and so incompressible, buffer is sent over and over with chunked
+ * transfer encoding.  Each connection sends as many bytes as the file used by the FTP test, or, if the config has a duration or a
+ * maximum number of bytes, sends data until the test is done.
+ */
+class SpeedTestHttpUpload {
+    private static final String TAG = Constants.TAG + SpeedTestHttpUpload.class.getSimpleName();
+
+    private static final int TIMEOUT = 5000;
+    private static final int BUFFER_SIZE = 65536;
+    // How much we send if we don't have a file to take the size from.
+    private static final long DEFAULT_PAYLOAD_BYTES = 2000000;
+    private static final byte[] PAYLOAD = createPayload();
+
+    /**
+     * @param onTransferStarted if not null, run when the first bytes are sent.
+     */
+    @NonNull
+    static SpeedTestResult upload(SpeedTestUploadConfig uploadConfig, @Nullable Runnable onTransferStarted) {
+        Log.v(TAG, "upload " + uploadConfig);
+        final URL url;
+        try {
+            url = new URL(uploadConfig.url);
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "upload: incorrect url " + uploadConfig.url, e);
+            return new SpeedTestResult(0, 0, 0, SpeedTestStatus.INVALID_FILE);
+        }
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+            Log.e(TAG, "upload: not an http url: " + uploadConfig.url);
+            return new SpeedTestResult(0, 0, 0, SpeedTestStatus.INVALID_FILE);
+        }
+        long payloadBytes = uploadConfig.file.exists() ? uploadConfig.file.length() : DEFAULT_PAYLOAD_BYTES;
+        boolean isBounded = uploadConfig.duration > 0 || uploadConfig.maxBytes > 0;
+        return ParallelTransfer.run(ParallelTransfer.Direction.UPLOAD, uploadConfig.streams, uploadConfig.duration, uploadConfig.maxBytes,
+                onTransferStarted, recorder -> uploadStream(url, isBounded ? Long.MAX_VALUE : payloadBytes, recorder));
+    }
+
+    /**
+     * Send the given number of bytes over one connection, or fewer if the recorder says the test is done.
+     */
+    @NonNull
+    private static SpeedTestResult uploadStream(URL url, long payloadBytes, ThroughputRecorder recorder) {
+        HttpURLConnection connection = null;
+        OutputStream outputStream = null;
+        long totalWritten = 0;
+        long before = System.currentTimeMillis();
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setChunkedStreamingMode(BUFFER_SIZE);
+            outputStream = connection.getOutputStream();
+            while (totalWritten < payloadBytes && !recorder.isDone()) {
+                int length = (int) Math.min(PAYLOAD.length, payloadBytes - totalWritten);
+                outputStream.write(PAYLOAD, 0, length);
+                totalWritten += length;
+                recorder.onBytesTransferred(length);
+            }
+            outputStream.close();
+            outputStream = null;
+            int responseCode = connection.getResponseCode();
+            long after = System.currentTimeMillis();
+            Log.v(TAG, "uploadStream: sent " + totalWritten + " bytes, response " + responseCode);
+            return new SpeedTestResult(0, totalWritten, after - before, getStatus(responseCode));
+        } catch (Throwable t) {
+            Log.d(TAG, "uploadStream: Caught an exception", t);
+            return new SpeedTestResult(0, totalWritten, System.currentTimeMillis() - before, SpeedTestStatus.FAILURE);
+        } finally {
+            IoUtil.closeSilently(outputStream);
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    private static SpeedTestStatus getStatus(int responseCode) {
+        if (responseCode >= 200 && responseCode < 300) return SpeedTestStatus.SUCCESS;
+        if (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED || responseCode == HttpURLConnection.HTTP_FORBIDDEN) return SpeedTestStatus.AUTH_FAILURE;
+        return SpeedTestStatus.FAILURE;
+    }
+
+    private static byte[] createPayload() {
+        byte[] payload = new byte[BUFFER_SIZE];
+        new Random().nextBytes(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import ca.rmen.android.networkmonitor.Constants;
+import ca.rmen.android.networkmonitor.app.speedtest.ParallelTransfer.Direction;
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
+import ca.rmen.android.networkmonitor.util.TelephonyUtil;
+
+/**
+ * Decides how much data a speed test should transfer, and keeps track of the data used by the speed tests each day.
+ * <p>
+ * If the user enabled the adaptive size, a test transfers as many bytes as the last speed measured on the same type of network
+ * allows in the test duration.  If the user set a daily budget, the tests are skipped once the budget is used up, and an adaptive
+ * test never transfers more than what is left of the budget.
+ */
+public class SpeedTestPayloadSizer {
+    private static final String TAG = Constants.TAG + SpeedTestPayloadSizer.class.getSimpleName();
+
+    // How long a test should last, if the user didn't choose a duration.
+    private static final long TARGET_DURATION_MS = 8000;
+    private static final long MIN_BYTES = 256000;
+    private static final long MAX_BYTES = 100000000;
+    // The speeds we assume before we have measured anything on a type of network.
+    private static final float INITIAL_SPEED_MBPS_WIFI = 20;
+    private static final float INITIAL_SPEED_MBPS_MOBILE = 2;
+
+    private final Context mContext;
+    private final SpeedTestPreferences mPreferences;
+
+    public SpeedTestPayloadSizer(Context context) {
+        mContext = context;
+        mPreferences = SpeedTestPreferences.getInstance(context);
+    }
+
+    /**
+     * @return true if the user set a daily budget and the speed tests used it up today.
+     */
+    public boolean isBudgetExhausted() {
+        long budget = mPreferences.getDailyBudget();
+        if (budget <= 0) return false;
+        long dataUsage = mPreferences.getDataUsage(getDay());
+        Log.v(TAG, "isBudgetExhausted: used " + dataUsage + " of " + budget + " bytes today");
+        return budget - dataUsage < MIN_BYTES;
+    }
+
+    public SpeedTestDownloadConfig getDownloadConfig() {
+        return mPreferences.getDownloadConfig(mContext, getMaxBytes(Direction.DOWNLOAD));
+    }
+
+    public SpeedTestUploadConfig getUploadConfig() {
+        return mPreferences.getUploadConfig(mContext, getMaxBytes(Direction.UPLOAD));
+    }
+
+    public void onDownloadDone(SpeedTestResult result) {
+        onTestDone(Direction.DOWNLOAD, result);
+    }
+
+    public void onUploadDone(SpeedTestResult result) {
+        onTestDone(Direction.UPLOAD, result);
+    }
+
+    /**
+     * @return the number of bytes the next test should transfer, or 0 to transfer the whole file.
+     */
+    private long getMaxBytes(Direction direction) {
+        if (!mPreferences.isAdaptiveSizeEnabled()) return 0;
+        String networkType = TelephonyUtil.getNetworkType(mContext);
+        float speedMbps = networkType == null ? 0 : mPreferences.getLastSpeed(direction, networkType);
+        if (speedMbps <= 0) speedMbps = isWifiOrEthernet() ? INITIAL_SPEED_MBPS_WIFI : INITIAL_SPEED_MBPS_MOBILE;
+        long durationMs = mPreferences.getTransferDuration();
+        if (durationMs <= 0) durationMs = TARGET_DURATION_MS;
+        long maxBytes = (long) (speedMbps * 1000000 / 8 * durationMs / 1000);
+        maxBytes = Math.max(MIN_BYTES, Math.min(MAX_BYTES, maxBytes));
+        long budget = mPreferences.getDailyBudget();
+        if (budget > 0) maxBytes = Math.min(maxBytes, Math.max(MIN_BYTES, budget - mPreferences.getDataUsage(getDay())));
+        Log.v(TAG, "getMaxBytes: " + direction + " on " + networkType + " at " + speedMbps + " Mbps: " + maxBytes + " bytes");
+        return maxBytes;
+    }
+
+    private void onTestDone(Direction direction, SpeedTestResult result) {
+        // We count the bytes we transferred ourselves: the total bytes may include other apps' traffic.
+        mPreferences.addDataUsage(getDay(), result.fileBytes);
+        String networkType = TelephonyUtil.getNetworkType(mContext);
+        if (result.status == SpeedTestStatus.SUCCESS && networkType != null) {
+            mPreferences.setLastSpeed(direction, networkType, result.getSpeedMbps());
+        }
+    }
+
+    private boolean isWifiOrEthernet() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return false;
+        NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+        return activeNetworkInfo != null
+                && (activeNetworkInfo.getType() == ConnectivityManager.TYPE_WIFI || activeNetworkInfo.getType() == ConnectivityManager.TYPE_ETHERNET);
+    }
+
+    private static String getDay() {
+        return new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
+    }
+}
@@ -44,20 +44,33 @@ public class SpeedTestPreferences {
 
     static final String PREF_SPEED_TEST_ENABLED = "PREF_SPEED_TEST_ENABLED";
     static final String PREF_SPEED_TEST_DOWNLOAD_URL = "PREF_SPEED_TEST_DOWNLOAD_URL";
+    static final String PREF_SPEED_TEST_DOWNLOAD_STREAMS = "PREF_SPEED_TEST_DOWNLOAD_STREAMS";
     static final String PREF_SPEED_TEST_INTERVAL = "PREF_SPEED_TEST_INTERVAL";
+    static final String PREF_SPEED_TEST_DURATION = "PREF_SPEED_TEST_DURATION";
+    static final String PREF_SPEED_TEST_ADAPTIVE_SIZE = "PREF_SPEED_TEST_ADAPTIVE_SIZE";
+    static final String PREF_SPEED_TEST_DAILY_BUDGET = "PREF_SPEED_TEST_DAILY_BUDGET";
     static final String PREF_SPEED_TEST_UPLOAD_SERVER = "PREF_SPEED_TEST_UPLOAD_SERVER";
     static final String PREF_SPEED_TEST_UPLOAD_PORT = "PREF_SPEED_TEST_UPLOAD_PORT";
     static final String PREF_SPEED_TEST_UPLOAD_USER = "PREF_SPEED_TEST_UPLOAD_USER";
     static final String PREF_SPEED_TEST_UPLOAD_PATH = "PREF_SPEED_TEST_UPLOAD_PATH";
+    static final String PREF_SPEED_TEST_UPLOAD_URL = "PREF_SPEED_TEST_UPLOAD_URL";
+    static final String PREF_SPEED_TEST_UPLOAD_STREAMS = "PREF_SPEED_TEST_UPLOAD_STREAMS";
 
     static final int PREF_SPEED_TEST_INTERVAL_NETWORK_CHANGE = -2;
     static final int PREF_SPEED_TEST_INTERVAL_DBM_OR_NETWORK_CHANGE = -1;
 
     private static final String PREF_SPEED_TEST_UPLOAD_PASSWORD = "PREF_SPEED_TEST_UPLOAD_PASSWORD";
+    private static final String PREF_SPEED_TEST_DATA_USAGE_DAY = "PREF_SPEED_TEST_DATA_USAGE_DAY";
+    private static final String PREF_SPEED_TEST_DATA_USAGE_BYTES = "PREF_SPEED_TEST_DATA_USAGE_BYTES";
+    private static final String PREF_SPEED_TEST_LAST_SPEED = "PREF_SPEED_TEST_LAST_SPEED";
 
     private static final String PREF_SPEED_TEST_DEFAULT_UPLOAD_PORT = "21";
     private static final String PREF_SPEED_TEST_DEFAULT_UPLOAD_PATH = "/";
     private static final String PREF_SPEED_TEST_DEFAULT_INTERVAL = "1";
+    private static final String PREF_SPEED_TEST_DEFAULT_DOWNLOAD_STREAMS = "1";
+    private static final String PREF_SPEED_TEST_DEFAULT_UPLOAD_STREAMS = "1";
+    private static final String PREF_SPEED_TEST_DEFAULT_DURATION = "0";
+    private static final String PREF_SPEED_TEST_DEFAULT_DAILY_BUDGET = "0";
 
     private static SpeedTestPreferences INSTANCE = null;
     private final SharedPreferences mSharedPrefs;
@@ -87,20 +100,84 @@ public class SpeedTestPreferences {
     }
 
     public SpeedTestUploadConfig getUploadConfig(Context context) {
+        return getUploadConfig(context, 0);
+    }
+
+    /**
+     * @param maxBytes the maximum number of bytes to send, or 0 to send the file once.
+     */
+    SpeedTestUploadConfig getUploadConfig(Context context, long maxBytes) {
         String server = mSharedPrefs.getString(PREF_SPEED_TEST_UPLOAD_SERVER, "").trim();
         int port = Integer.valueOf(mSharedPrefs.getString(PREF_SPEED_TEST_UPLOAD_PORT, PREF_SPEED_TEST_DEFAULT_UPLOAD_PORT));
         String user = mSharedPrefs.getString(PREF_SPEED_TEST_UPLOAD_USER, "").trim();
         String password = mSharedPrefs.getString(PREF_SPEED_TEST_UPLOAD_PASSWORD, "").trim();
         String path = mSharedPrefs.getString(PREF_SPEED_TEST_UPLOAD_PATH, PREF_SPEED_TEST_DEFAULT_UPLOAD_PATH).trim();
+        String url = mSharedPrefs.getString(PREF_SPEED_TEST_UPLOAD_URL, "").trim();
+        int streams = Integer.valueOf(mSharedPrefs.getString(PREF_SPEED_TEST_UPLOAD_STREAMS, PREF_SPEED_TEST_DEFAULT_UPLOAD_STREAMS));
 
         File file = FileUtil.getCacheFile(context, FILE);
-        return new SpeedTestUploadConfig(server, port, user, password, path, file);
+        return new SpeedTestUploadConfig(server, port, user, password, path, file, url, streams, getTransferDuration(), maxBytes);
     }
 
     public SpeedTestDownloadConfig getDownloadConfig(Context context) {
+        return getDownloadConfig(context, 0);
+    }
+
+    /**
+     * @param maxBytes the maximum number of bytes to receive, or 0 to download the file once.
+     */
+    SpeedTestDownloadConfig getDownloadConfig(Context context, long maxBytes) {
         String url = mSharedPrefs.getString(PREF_SPEED_TEST_DOWNLOAD_URL, "");
+        int streams = Integer.valueOf(mSharedPrefs.getString(PREF_SPEED_TEST_DOWNLOAD_STREAMS, PREF_SPEED_TEST_DEFAULT_DOWNLOAD_STREAMS));
         File file = FileUtil.getCacheFile(context, FILE);
-        return new SpeedTestDownloadConfig(url, file);
+        return new SpeedTestDownloadConfig(url, file, streams, getTransferDuration(), maxBytes);
+    }
+
+    /**
+     * @return the maximum duration of a transfer in milliseconds, or 0 if the whole file should be transferred.
+     */
+    long getTransferDuration() {
+        return Integer.valueOf(mSharedPrefs.getString(PREF_SPEED_TEST_DURATION, PREF_SPEED_TEST_DEFAULT_DURATION)) * 1000L;
+    }
+
+    boolean isAdaptiveSizeEnabled() {
+        return mSharedPrefs.getBoolean(PREF_SPEED_TEST_ADAPTIVE_SIZE, false);
+    }
+
+    /**
+     * @return the maximum number of bytes the speed tests may transfer in a day, or 0 if there is no maximum.
+     */
+    long getDailyBudget() {
+        return Integer.valueOf(mSharedPrefs.getString(PREF_SPEED_TEST_DAILY_BUDGET, PREF_SPEED_TEST_DEFAULT_DAILY_BUDGET)) * 1000000L;
+    }
+
+    /**
+     * @param day the current day, ex: 20201019
+     * @return the number of bytes the speed tests transferred on the given day.
+     */
+    long getDataUsage(String day) {
+        if (!day.equals(mSharedPrefs.getString(PREF_SPEED_TEST_DATA_USAGE_DAY, null))) return 0;
+        return mSharedPrefs.getLong(PREF_SPEED_TEST_DATA_USAGE_BYTES, 0);
+    }
+
+    /**
+     * Add the given number of bytes to the data used by the speed tests on the given day.
+     */
+    synchronized void addDataUsage(String day, long bytes) {
+        long dataUsage = getDataUsage(day) + bytes;
+        mSharedPrefs.edit().putString(PREF_SPEED_TEST_DATA_USAGE_DAY, day).putLong(PREF_SPEED_TEST_DATA_USAGE_BYTES, dataUsage).apply();
+    }
+
+    /**
+     * @param networkType the full network type, as returned by {@link ca.rmen.android.networkmonitor.util.TelephonyUtil#getNetworkType(Context)}
+     * @return the speed in megabits per second measured by the last successful test on this type of network, or 0 if we don't have any.
+     */
+    float getLastSpeed(ParallelTransfer.Direction direction, String networkType) {
+        return mSharedPrefs.getFloat(PREF_SPEED_TEST_LAST_SPEED + "_" + direction + "_" + networkType, 0);
+    }
+
+    void setLastSpeed(ParallelTransfer.Direction direction, String networkType, float speedMbps) {
+        mSharedPrefs.edit().putFloat(PREF_SPEED_TEST_LAST_SPEED + "_" + direction + "_" + networkType, speedMbps).apply();
     }
 
     SpeedTestResult getLastDownloadResult() {
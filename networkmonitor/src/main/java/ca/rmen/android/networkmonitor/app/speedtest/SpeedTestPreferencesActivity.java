@@ -76,6 +76,7 @@ public class SpeedTestPreferencesActivity extends AppCompatActivity { // NO_UCD
         updatePreferenceSummary(SpeedTestPreferences.PREF_SPEED_TEST_UPLOAD_PORT, R.string.pref_summary_speed_test_upload_port);
         updatePreferenceSummary(SpeedTestPreferences.PREF_SPEED_TEST_UPLOAD_USER, R.string.pref_summary_speed_test_upload_user);
         updatePreferenceSummary(SpeedTestPreferences.PREF_SPEED_TEST_UPLOAD_PATH, R.string.pref_summary_speed_test_upload_path);
+        updatePreferenceSummary(SpeedTestPreferences.PREF_SPEED_TEST_UPLOAD_URL, R.string.pref_summary_speed_test_upload_url);
     }
 
     @Override
@@ -133,6 +134,9 @@ public class SpeedTestPreferencesActivity extends AppCompatActivity { // NO_UCD
             case SpeedTestPreferences.PREF_SPEED_TEST_UPLOAD_PATH:
                 updatePreferenceSummary(key, R.string.pref_summary_speed_test_upload_path);
                 break;
+            case SpeedTestPreferences.PREF_SPEED_TEST_UPLOAD_URL:
+                updatePreferenceSummary(key, R.string.pref_summary_speed_test_upload_url);
+                break;
             default:
                 break;
         }
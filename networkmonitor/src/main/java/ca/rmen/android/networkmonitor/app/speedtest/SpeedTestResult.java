@@ -25,45 +25,92 @@ package ca.rmen.android.networkmonitor.app.speedtest;
 
 import androidx.annotation.NonNull;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class SpeedTestResult {
     public enum SpeedTestStatus {
         SUCCESS, INVALID_FILE, FAILURE, AUTH_FAILURE, UNKNOWN
     }
 
+    /**
+     * How the bytes used to compute the speed were counted.
+     */
+    public enum ByteCountMethod {
+        // The bytes sent or received by this app, including the protocol overhead, the small traffic of our latency and
+        // outage probes during the test, and an e-mail report if one was being sent at the same time.  See TrafficCounter.
+        UID,
+        // The bytes of the file, when the device doesn't count the traffic of each app.
+        PAYLOAD
+    }
+
     final long fileBytes;
     public final SpeedTestStatus status;
     public final long totalBytes;
     public final long transferTime;
+    // The result of each connection, when the file was transferred over several connections at the same time.
+    public final List<SpeedTestResult> streamResults;
+    // The throughput in megabits per second during each interval of the transfer.  See ThroughputRecorder.
+    public final float[] intervalSpeeds;
 
     /**
-     * @param totalBytes the total bytes transferred (either received or sent) during the time the file was being transferred.
+     * @param totalBytes the total bytes transferred (either received or sent) by this app during the time the file was being transferred.
      * @param fileBytes the size of the file which was transferred
      * @param transferTime the time in milliseconds it took to transfer the file
      * @param status the result of the file transfer
      */
     SpeedTestResult(long totalBytes, long fileBytes, long transferTime, SpeedTestStatus status) {
+        this(totalBytes, fileBytes, transferTime, status, Collections.emptyList(), new float[0]);
+    }
+
+    /**
+     * @param totalBytes the total bytes transferred (either received or sent) by this app during the time the file was being transferred.
+     * @param fileBytes the number of bytes of the file which were transferred, over all the connections
+     * @param transferTime the time in milliseconds between the start of the first connection and the end of the last one
+     * @param status the result of the file transfer
+     * @param streamResults the result of each connection
+     * @param intervalSpeeds the throughput of each interval of the transfer, over all the connections
+     */
+    SpeedTestResult(long totalBytes, long fileBytes, long transferTime, SpeedTestStatus status, List<SpeedTestResult> streamResults, float[] intervalSpeeds) {
         this.totalBytes = totalBytes;
         this.fileBytes = fileBytes;
         this.transferTime = transferTime;
         this.status = status;
+        this.streamResults = streamResults;
+        this.intervalSpeeds = intervalSpeeds;
     }
 
     /**
      * @return the transfer speed in megabits per second.
      */
     public float getSpeedMbps() {
-        long bytesTransferred = totalBytes > 0 ? totalBytes : fileBytes;
+        long bytesTransferred = getByteCountMethod() == ByteCountMethod.UID ? totalBytes : fileBytes;
         float seconds = (float) transferTime / 1000;
         long bits = bytesTransferred * 8;
         float megabits = (float) bits / 1000000;
         return megabits / seconds;
     }
 
+    public ByteCountMethod getByteCountMethod() {
+        return totalBytes > 0 ? ByteCountMethod.UID : ByteCountMethod.PAYLOAD;
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @return the speed in megabits per second below which the given percentage of the interval speeds fall, or -1 if the
+     * transfer was too short to have any complete interval.
+     */
+    public float getSpeedPercentileMbps(int percentile) {
+        return ThroughputRecorder.getPercentile(intervalSpeeds, percentile);
+    }
+
     @Override
     @NonNull
     public String toString() {
         return SpeedTestResult.class.getSimpleName() + "[totalBytes=" + totalBytes + ", fileBytes=" + fileBytes + ", transferTime=" + transferTime
-                + ", status=" + status + "]";
+                + ", status=" + status + ", streamResults=" + streamResults
+                + ", intervalSpeeds=" + Arrays.toString(intervalSpeeds) + "]";
     }
 
 
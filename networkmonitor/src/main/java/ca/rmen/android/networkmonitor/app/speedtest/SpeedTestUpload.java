@@ -26,11 +26,14 @@ package ca.rmen.android.networkmonitor.app.speedtest;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.SocketException;
+import java.util.Collections;
 
-import android.net.TrafficStats;
 import android.text.TextUtils;
 
+import androidx.annotation.Nullable;
+
 import org.apache.commons.net.PrintCommandListener;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPReply;
@@ -45,14 +48,24 @@ import android.util.Log;
 
 /**
  * Uploads a file and calculates the upload speed.
+ * <p>
+ * The file is uploaded with FTP, unless the config has an HTTP url: see {@link SpeedTestHttpUpload}.
+ * <p>
+ * If the config has a duration, the file is uploaded until the duration has passed, or until the speed stops changing.
+ * If the config has a maximum number of bytes, we stop once that much has been sent.
  */
 public class SpeedTestUpload {
     private static final String TAG = Constants.TAG + SpeedTestUpload.class.getSimpleName();
 
     private static final int TIMEOUT = 5000;
+    private static final int BUFFER_SIZE = 65536;
 
-    public static SpeedTestResult upload(SpeedTestUploadConfig uploadConfig) {
+    /**
+     * @param onTransferStarted if not null, run when the first bytes are sent.
+     */
+    public static SpeedTestResult upload(SpeedTestUploadConfig uploadConfig, @Nullable Runnable onTransferStarted) {
         Log.v(TAG, "upload " + uploadConfig);
+        if (uploadConfig.isHttp()) return SpeedTestHttpUpload.upload(uploadConfig, onTransferStarted);
         // Make sure we have a file to upload
         if (!uploadConfig.file.exists()) return new SpeedTestResult(0, 0, 0, SpeedTestStatus.INVALID_FILE);
 
@@ -66,6 +79,8 @@ public class SpeedTestUpload {
             ftp.addProtocolCommandListener(printCommandListener);
         }
         InputStream is = null;
+        OutputStream os = null;
+        TrafficCounter.tagThread();
         try {
             // Set buffer size of FTP client
             ftp.setBufferSize(1048576);
@@ -92,24 +107,46 @@ public class SpeedTestUpload {
             ftp.enterLocalPassiveMode();
 
             // Upload the file
-            is = new FileInputStream(uploadConfig.file);
             long before = System.currentTimeMillis();
-            long txBytesBefore = TrafficStats.getTotalTxBytes();
-            if (!ftp.storeFile(uploadConfig.file.getName(), is)) {
+            TrafficCounter trafficCounter = new TrafficCounter(ParallelTransfer.Direction.UPLOAD);
+            os = ftp.storeFileStream(uploadConfig.file.getName());
+            if (os == null) {
                 ftp.disconnect();
                 Log.v(TAG,
                         "Upload: could not store file to " + uploadConfig.path + ". Error code: " + ftp.getReplyCode() + ", error string: "
                                 + ftp.getReplyString());
                 return new SpeedTestResult(0, 0, 0, SpeedTestStatus.FAILURE);
             }
+            ThroughputRecorder recorder = new ThroughputRecorder(uploadConfig.duration, uploadConfig.maxBytes, onTransferStarted);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long totalWritten = 0;
+            // If the test has a maximum duration or number of bytes, we send the file again as many times as needed until the test is done.
+            do {
+                is = new FileInputStream(uploadConfig.file);
+                int read;
+                while (!recorder.isDone() && (read = is.read(buffer)) > 0) {
+                    os.write(buffer, 0, read);
+                    totalWritten += read;
+                    recorder.onBytesTransferred(read);
+                }
+                is.close();
+            } while ((uploadConfig.duration > 0 || uploadConfig.maxBytes > 0) && !recorder.isDone());
+            os.close();
+            os = null;
+            if (!ftp.completePendingCommand()) {
+                ftp.disconnect();
+                Log.v(TAG, "Upload: could not complete the transfer. Error code: " + ftp.getReplyCode() + ", error string: " + ftp.getReplyString());
+                return new SpeedTestResult(0, 0, 0, SpeedTestStatus.FAILURE);
+            }
 
             // Calculate stats
             long after = System.currentTimeMillis();
-            long txBytesAfter = TrafficStats.getTotalTxBytes();
+            long txBytes = trafficCounter.getBytes();
             ftp.logout();
             ftp.disconnect();
             Log.v(TAG, "Upload complete");
-            return new SpeedTestResult(txBytesAfter - txBytesBefore, uploadConfig.file.length(), after - before, SpeedTestStatus.SUCCESS);
+            return new SpeedTestResult(txBytes, totalWritten, after - before, SpeedTestStatus.SUCCESS,
+                    Collections.emptyList(), recorder.getIntervalSpeedsMbps());
         } catch (SocketException e) {
             Log.e(TAG, "upload " + e.getMessage(), e);
             return new SpeedTestResult(0, 0, 0, SpeedTestStatus.FAILURE);
@@ -117,7 +154,8 @@ public class SpeedTestUpload {
             Log.e(TAG, "upload " + e.getMessage(), e);
             return new SpeedTestResult(0, 0, 0, SpeedTestStatus.FAILURE);
         } finally {
-            IoUtil.closeSilently(is);
+            IoUtil.closeSilently(is, os);
+            TrafficCounter.untagThread();
         }
     }
 }
@@ -36,6 +36,10 @@ public class SpeedTestUploadConfig {
     final String password;
     final String path;
     final File file;
+    final String url;
+    final int streams;
+    final long duration;
+    final long maxBytes;
 
     /**
      * @param server the hostname or IP address of the FTP server
@@ -47,18 +51,49 @@ public class SpeedTestUploadConfig {
      * 
      */
     public SpeedTestUploadConfig(String server, int port, String user, String password, String path, File file) {
+        this(server, port, user, password, path, file, null, 1, 0, 0);
+    }
+
+    /**
+     * @param server the hostname or IP address of the FTP server
+     * @param port the port of the FTP server
+     * @param user the username
+     * @param password the password
+     * @param path the path on the FTP server where we will put the file
+     * @param file the file we will upload with FTP.  Its size is also the number of bytes sent by each HTTP connection.
+     * @param url if not empty, we upload to this url with HTTP instead of using the FTP server.
+     * @param streams the number of HTTP connections which send data at the same time.
+     * @param duration the maximum duration of the test in milliseconds, during which the file is uploaded again as many times
+     *                 as needed.  0 to upload the file once, however long it takes.
+     * @param maxBytes the maximum number of bytes to send over all the connections, sending the file again as many times as needed.
+     *                 0 for no maximum.
+     */
+    public SpeedTestUploadConfig(String server, int port, String user, String password, String path, File file, String url, int streams,
+                                 long duration, long maxBytes) {
         this.server = server;
         this.port = port;
         this.user = user;
         this.password = password;
         this.path = path;
         this.file = file;
+        this.url = url;
+        this.streams = streams;
+        this.duration = duration;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return true if we upload with HTTP, false if we upload with FTP.
+     */
+    boolean isHttp() {
+        return !TextUtils.isEmpty(url);
     }
 
     /**
      * @return true if we have enough info to attempt to upload a file.
      */
     public boolean isValid() {
+        if (isHttp()) return true;
         return !TextUtils.isEmpty(server) && port > 0 && !TextUtils.isEmpty(user) && !TextUtils.isEmpty(password);
     }
 
@@ -66,7 +101,7 @@ public class SpeedTestUploadConfig {
     @NonNull
     public String toString() {
         return SpeedTestUploadConfig.class.getSimpleName() + " [server=" + server + ", port=" + port + ", user=" + user + ", path=" + path + ", file=" + file
-                + "]";
+                + ", url=" + url + ", streams=" + streams + ", duration=" + duration + ", maxBytes=" + maxBytes + "]";
     }
 
 }
\ No newline at end of file
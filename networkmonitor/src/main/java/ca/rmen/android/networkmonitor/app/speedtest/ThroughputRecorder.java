@@ -0,0 +1,141 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import java.util.Arrays;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Counts the bytes transferred during a speed test, in fixed intervals, so that we can see how the throughput varied during the test.
+ * Several threads may add bytes at the same time.
+ * <p>
+ * A recorder may also bound the duration of the test: the test is done once the duration has passed, or earlier, once the throughput
+ * of the last second is within a few percent of the throughput of the second before.  It may also bound the number of bytes transferred.
+ * <p>
+ * The intervals, and the duration, start with the first bytes transferred, so the time spent opening the connections isn't counted.
+ */
+class ThroughputRecorder {
+    static final long INTERVAL_MS = 250;
+    // We compare the throughput of the last 4 intervals to the 4 before...
+    private static final int CONVERGENCE_WINDOW = 4;
+    // ... but only after the first 2 seconds, to skip the TCP slow start.
+    private static final int CONVERGENCE_MIN_INTERVALS = 8;
+    private static final float CONVERGENCE_TOLERANCE = 0.05f;
+
+    // The time of the first bytes transferred, or 0 if no bytes were transferred yet.
+    private long mStartTime;
+    private final long mDurationMs;
+    private final long mMaxBytes;
+    private final Runnable mOnFirstBytes;
+    private long[] mIntervalBytes = new long[32];
+    private long mTotalBytes;
+
+    ThroughputRecorder() {
+        this(0, 0, null);
+    }
+
+    /**
+     * @param durationMs the maximum duration of the test, or 0 for no maximum.
+     * @param maxBytes the maximum number of bytes to transfer, or 0 for no maximum.
+     * @param onFirstBytes if not null, run when the first bytes are transferred.
+     */
+    ThroughputRecorder(long durationMs, long maxBytes, @Nullable Runnable onFirstBytes) {
+        mDurationMs = durationMs;
+        mMaxBytes = maxBytes;
+        mOnFirstBytes = onFirstBytes;
+    }
+
+    synchronized void onBytesTransferred(long byteCount) {
+        if (mStartTime == 0) {
+            mStartTime = System.currentTimeMillis();
+            if (mOnFirstBytes != null) mOnFirstBytes.run();
+        }
+        int interval = getCurrentInterval();
+        if (interval >= mIntervalBytes.length) mIntervalBytes = Arrays.copyOf(mIntervalBytes, Math.max(interval + 1, mIntervalBytes.length * 2));
+        mIntervalBytes[interval] += byteCount;
+        mTotalBytes += byteCount;
+    }
+
+    /**
+     * @return true if this recorder has a maximum duration or number of bytes, and the test should stop now.
+     */
+    synchronized boolean isDone() {
+        if (mMaxBytes > 0 && mTotalBytes >= mMaxBytes) return true;
+        if (mDurationMs <= 0 || mStartTime == 0) return false;
+        return System.currentTimeMillis() - mStartTime >= mDurationMs || hasConverged(getCurrentInterval());
+    }
+
+    /**
+     * @return the throughput of each complete interval since we started, in megabits per second.
+     */
+    synchronized float[] getIntervalSpeedsMbps() {
+        int intervalCount = getCurrentInterval();
+        float[] speeds = new float[intervalCount];
+        for (int i = 0; i < intervalCount; i++) {
+            speeds[i] = getSpeedMbps(i < mIntervalBytes.length ? mIntervalBytes[i] : 0, INTERVAL_MS);
+        }
+        return speeds;
+    }
+
+    /**
+     * @param intervalCount the number of complete intervals
+     */
+    private boolean hasConverged(int intervalCount) {
+        if (intervalCount < Math.max(CONVERGENCE_MIN_INTERVALS, 2 * CONVERGENCE_WINDOW)) return false;
+        long recent = getBytes(intervalCount - CONVERGENCE_WINDOW, intervalCount);
+        long previous = getBytes(intervalCount - 2 * CONVERGENCE_WINDOW, intervalCount - CONVERGENCE_WINDOW);
+        return previous > 0 && Math.abs(recent - previous) <= CONVERGENCE_TOLERANCE * previous;
+    }
+
+    private long getBytes(int fromInterval, int toInterval) {
+        long bytes = 0;
+        for (int i = fromInterval; i < toInterval && i < mIntervalBytes.length; i++) {
+            bytes += mIntervalBytes[i];
+        }
+        return bytes;
+    }
+
+    private int getCurrentInterval() {
+        if (mStartTime == 0) return 0;
+        return (int) ((System.currentTimeMillis() - mStartTime) / INTERVAL_MS);
+    }
+
+    private static float getSpeedMbps(long bytes, long durationMs) {
+        return (float) (bytes * 8) / 1000 / durationMs;
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @return the speed below which the given percentage of the interval speeds fall, using the nearest-rank method, or -1 if
+     * there are no interval speeds.
+     */
+    static float getPercentile(float[] intervalSpeeds, int percentile) {
+        if (intervalSpeeds.length == 0) return -1;
+        float[] sortedSpeeds = Arrays.copyOf(intervalSpeeds, intervalSpeeds.length);
+        Arrays.sort(sortedSpeeds);
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedSpeeds.length);
+        return sortedSpeeds[Math.max(0, rank - 1)];
+    }
+}
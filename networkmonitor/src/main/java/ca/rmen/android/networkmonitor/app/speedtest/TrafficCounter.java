@@ -0,0 +1,89 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import android.net.TrafficStats;
+import android.os.Process;
+import android.util.Log;
+
+import ca.rmen.android.networkmonitor.Constants;
+
+/**
+ * Counts the bytes this app sends or receives during a speed test.  Unlike the device-wide counters, the counters of our own
+ * app aren't affected by the traffic of other apps during the test.
+ * <p>
+ * They do include the rest of our own traffic during the test: the {@link LatencyUnderLoadProbe} connects to the server every
+ * 100 ms, and the burst of probes of an outage which started before the test may still be running.  Each of these connections
+ * costs a few hundred bytes, so they add about a few KB per second to the count.  This is negligible unless the link is very slow.
+ * The connection tests don't overlap: they're skipped while a speed test runs.
+ * <p>
+ * An e-mail report, which is sent in the background, may also overlap a speed test.  Its attachment may be large: the count, and so
+ * the speed, of that test is then too high.
+ * <p>
+ * The sockets of the speed test are also tagged, so that their traffic can be told apart in the system's network statistics.
+ * Apps can't read the counters of a tag themselves, though.
+ */
+class TrafficCounter {
+    private static final String TAG = Constants.TAG + TrafficCounter.class.getSimpleName();
+
+    // "ST": identifies the sockets of the speed test.
+    private static final int THREAD_STATS_TAG = 0x5354;
+
+    private final ParallelTransfer.Direction mDirection;
+    private final long mBytesBefore;
+
+    TrafficCounter(ParallelTransfer.Direction direction) {
+        mDirection = direction;
+        mBytesBefore = getUidBytes(direction);
+    }
+
+    /**
+     * @return the number of bytes transferred by this app since this counter was created, or 0 if the device doesn't count
+     * the traffic of each app.  In that case, the speed is computed from the bytes of the file.
+     */
+    long getBytes() {
+        long bytesAfter = getUidBytes(mDirection);
+        if (mBytesBefore == TrafficStats.UNSUPPORTED || bytesAfter == TrafficStats.UNSUPPORTED) {
+            Log.v(TAG, "getBytes: the traffic of each app is not counted on this device");
+            return 0;
+        }
+        return Math.max(0, bytesAfter - mBytesBefore);
+    }
+
+    /**
+     * Tag the sockets which the current thread opens from now on, as speed test sockets.
+     */
+    static void tagThread() {
+        TrafficStats.setThreadStatsTag(THREAD_STATS_TAG);
+    }
+
+    static void untagThread() {
+        TrafficStats.clearThreadStatsTag();
+    }
+
+    private static long getUidBytes(ParallelTransfer.Direction direction) {
+        int uid = Process.myUid();
+        return direction == ParallelTransfer.Direction.DOWNLOAD ? TrafficStats.getUidRxBytes(uid) : TrafficStats.getUidTxBytes(uid);
+    }
+}
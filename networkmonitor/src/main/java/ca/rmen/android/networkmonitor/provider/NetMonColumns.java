@@ -104,6 +104,43 @@ public class NetMonColumns implements BaseColumns {
     public static final String BATTERY_LEVEL = "battery_level";
     public static final String DOWNLOAD_SPEED = "download_speed";
     public static final String UPLOAD_SPEED = "upload_speed";
+    public static final String SOCKET_DNS_TIME = "socket_dns_time";
+    public static final String SOCKET_CONNECT_TIME = "socket_connect_time";
+    public static final String SOCKET_FIRST_BYTE_TIME = "socket_first_byte_time";
+    public static final String HTTP_DNS_TIME = "http_dns_time";
+    public static final String HTTP_CONNECT_TIME = "http_connect_time";
+    public static final String HTTP_TLS_TIME = "http_tls_time";
+    public static final String HTTP_FIRST_BYTE_TIME = "http_first_byte_time";
+    public static final String DNS_TEST = "dns_test";
+    public static final String DNS_TIME = "dns_time";
+    public static final String UDP_RTT_MIN = "udp_rtt_min";
+    public static final String UDP_RTT_AVG = "udp_rtt_avg";
+    public static final String UDP_RTT_MAX = "udp_rtt_max";
+    public static final String UDP_JITTER = "udp_jitter";
+    public static final String UDP_LOSS = "udp_loss";
+    public static final String OUTAGE_START = "outage_start";
+    public static final String OUTAGE_END = "outage_end";
+    public static final String OUTAGE_DURATION = "outage_duration";
+    public static final String DOWNLOAD_SPEED_P10 = "download_speed_p10";
+    public static final String DOWNLOAD_SPEED_P50 = "download_speed_p50";
+    public static final String DOWNLOAD_SPEED_P90 = "download_speed_p90";
+    public static final String UPLOAD_SPEED_P10 = "upload_speed_p10";
+    public static final String UPLOAD_SPEED_P50 = "upload_speed_p50";
+    public static final String UPLOAD_SPEED_P90 = "upload_speed_p90";
+    public static final String DOWNLOAD_IDLE_RTT = "download_idle_rtt";
+    public static final String DOWNLOAD_LOADED_RTT_P50 = "download_loaded_rtt_p50";
+    public static final String DOWNLOAD_LOADED_RTT_P95 = "download_loaded_rtt_p95";
+    public static final String DOWNLOAD_BUFFERBLOAT_RATIO = "download_bufferbloat_ratio";
+    public static final String UPLOAD_IDLE_RTT = "upload_idle_rtt";
+    public static final String UPLOAD_LOADED_RTT_P50 = "upload_loaded_rtt_p50";
+    public static final String UPLOAD_LOADED_RTT_P95 = "upload_loaded_rtt_p95";
+    public static final String UPLOAD_BUFFERBLOAT_RATIO = "upload_bufferbloat_ratio";
+    public static final String DOWNLOAD_BYTE_COUNT_METHOD = "download_byte_count_method";
+    public static final String UPLOAD_BYTE_COUNT_METHOD = "upload_byte_count_method";
+    public static final String SCHEDULE_LATENESS = "schedule_lateness";
+    public static final String SKIPPED_TICKS = "skipped_ticks";
+    public static final String REQUESTED_INTERVAL = "requested_interval";
+    public static final String ACHIEVED_INTERVAL = "achieved_interval";
 
 
     /**
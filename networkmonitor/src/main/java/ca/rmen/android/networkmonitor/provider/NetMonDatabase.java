@@ -43,7 +43,7 @@ public class NetMonDatabase extends SQLiteOpenHelper {
     private static final String TAG = Constants.TAG + NetMonDatabase.class.getSimpleName();
 
     public static final String DATABASE_NAME = "networkmonitor.db";
-    private static final int DATABASE_VERSION = 18;
+    private static final int DATABASE_VERSION = 28;
 
     // @formatter:off
     private static final String SQL_CREATE_TABLE_NETWORKMONITOR = "CREATE TABLE IF NOT EXISTS "
@@ -109,6 +109,43 @@ public class NetMonDatabase extends SQLiteOpenHelper {
             + NetMonColumns.MOST_CONSUMING_APP_NAME + " TEXT, "
             + NetMonColumns.MOST_CONSUMING_APP_BYTES + " INTEGER, "
             + NetMonColumns.DOWNLOAD_SPEED+ " TEXT, "
+            + NetMonColumns.SOCKET_DNS_TIME + " INTEGER, "
+            + NetMonColumns.SOCKET_CONNECT_TIME + " INTEGER, "
+            + NetMonColumns.SOCKET_FIRST_BYTE_TIME + " INTEGER, "
+            + NetMonColumns.HTTP_DNS_TIME + " INTEGER, "
+            + NetMonColumns.HTTP_CONNECT_TIME + " INTEGER, "
+            + NetMonColumns.HTTP_TLS_TIME + " INTEGER, "
+            + NetMonColumns.HTTP_FIRST_BYTE_TIME + " INTEGER, "
+            + NetMonColumns.DNS_TEST + " TEXT, "
+            + NetMonColumns.DNS_TIME + " INTEGER, "
+            + NetMonColumns.UDP_RTT_MIN + " REAL, "
+            + NetMonColumns.UDP_RTT_AVG + " REAL, "
+            + NetMonColumns.UDP_RTT_MAX + " REAL, "
+            + NetMonColumns.UDP_JITTER + " REAL, "
+            + NetMonColumns.UDP_LOSS + " REAL, "
+            + NetMonColumns.OUTAGE_START + " INTEGER, "
+            + NetMonColumns.OUTAGE_END + " INTEGER, "
+            + NetMonColumns.OUTAGE_DURATION + " INTEGER, "
+            + NetMonColumns.DOWNLOAD_SPEED_P10 + " REAL, "
+            + NetMonColumns.DOWNLOAD_SPEED_P50 + " REAL, "
+            + NetMonColumns.DOWNLOAD_SPEED_P90 + " REAL, "
+            + NetMonColumns.UPLOAD_SPEED_P10 + " REAL, "
+            + NetMonColumns.UPLOAD_SPEED_P50 + " REAL, "
+            + NetMonColumns.UPLOAD_SPEED_P90 + " REAL, "
+            + NetMonColumns.DOWNLOAD_LOADED_RTT_P50 + " INTEGER, "
+            + NetMonColumns.DOWNLOAD_LOADED_RTT_P95 + " INTEGER, "
+            + NetMonColumns.DOWNLOAD_BUFFERBLOAT_RATIO + " REAL, "
+            + NetMonColumns.UPLOAD_LOADED_RTT_P50 + " INTEGER, "
+            + NetMonColumns.UPLOAD_LOADED_RTT_P95 + " INTEGER, "
+            + NetMonColumns.UPLOAD_BUFFERBLOAT_RATIO + " REAL, "
+            + NetMonColumns.DOWNLOAD_BYTE_COUNT_METHOD + " TEXT, "
+            + NetMonColumns.UPLOAD_BYTE_COUNT_METHOD + " TEXT, "
+            + NetMonColumns.SCHEDULE_LATENESS + " INTEGER, "
+            + NetMonColumns.SKIPPED_TICKS + " INTEGER, "
+            + NetMonColumns.REQUESTED_INTERVAL + " INTEGER, "
+            + NetMonColumns.ACHIEVED_INTERVAL + " INTEGER, "
+            + NetMonColumns.DOWNLOAD_IDLE_RTT + " INTEGER, "
+            + NetMonColumns.UPLOAD_IDLE_RTT + " INTEGER, "
             + NetMonColumns.UPLOAD_SPEED+ " TEXt"
             + " );";
     // @formatter:on
@@ -218,6 +255,145 @@ public class NetMonDatabase extends SQLiteOpenHelper {
     private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V18_LTE_CELL_TAC = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
             + NetMonColumns.LTE_CELL_TAC+ " INTEGER";
 
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V19_SOCKET_DNS_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.SOCKET_DNS_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V19_SOCKET_CONNECT_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.SOCKET_CONNECT_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V19_SOCKET_FIRST_BYTE_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.SOCKET_FIRST_BYTE_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_DNS_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.HTTP_DNS_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_CONNECT_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.HTTP_CONNECT_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_TLS_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.HTTP_TLS_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_FIRST_BYTE_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.HTTP_FIRST_BYTE_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V21_DNS_TEST = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DNS_TEST + " TEXT";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V21_DNS_TIME = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DNS_TIME + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_RTT_MIN = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UDP_RTT_MIN + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_RTT_AVG = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UDP_RTT_AVG + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_RTT_MAX = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UDP_RTT_MAX + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_JITTER = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UDP_JITTER + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_LOSS = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UDP_LOSS + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V23_OUTAGE_START = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.OUTAGE_START + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V23_OUTAGE_END = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.OUTAGE_END + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V23_OUTAGE_DURATION = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.OUTAGE_DURATION + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V24_DOWNLOAD_SPEED_P10 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_SPEED_P10 + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V24_DOWNLOAD_SPEED_P50 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_SPEED_P50 + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V24_DOWNLOAD_SPEED_P90 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_SPEED_P90 + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V24_UPLOAD_SPEED_P10 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_SPEED_P10 + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V24_UPLOAD_SPEED_P50 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_SPEED_P50 + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V24_UPLOAD_SPEED_P90 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_SPEED_P90 + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_IDLE_RTT = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_IDLE_RTT + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_LOADED_RTT_P50 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_LOADED_RTT_P50 + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_LOADED_RTT_P95 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_LOADED_RTT_P95 + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_BUFFERBLOAT_RATIO = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_BUFFERBLOAT_RATIO + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_IDLE_RTT = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_IDLE_RTT + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_LOADED_RTT_P50 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_LOADED_RTT_P50 + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_LOADED_RTT_P95 = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_LOADED_RTT_P95 + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_BUFFERBLOAT_RATIO = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_BUFFERBLOAT_RATIO + " REAL";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V26_DOWNLOAD_BYTE_COUNT_METHOD = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.DOWNLOAD_BYTE_COUNT_METHOD + " TEXT";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V26_UPLOAD_BYTE_COUNT_METHOD = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.UPLOAD_BYTE_COUNT_METHOD + " TEXT";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V27_SCHEDULE_LATENESS = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.SCHEDULE_LATENESS + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V27_SKIPPED_TICKS = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.SKIPPED_TICKS + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V28_REQUESTED_INTERVAL = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.REQUESTED_INTERVAL + " INTEGER";
+
+    private static final String SQL_UPDATE_TABLE_NETWORKMONITOR_V28_ACHIEVED_INTERVAL = "ALTER TABLE " + NetMonColumns.TABLE_NAME + " ADD COLUMN "
+            + NetMonColumns.ACHIEVED_INTERVAL + " INTEGER";
+
+    // The speed test decider looks for the last row with a speed test.
+    private static final String SQL_CREATE_INDEX_NETWORKMONITOR_DOWNLOAD_SPEED = "CREATE INDEX IF NOT EXISTS "
+            + NetMonColumns.TABLE_NAME + "_" + NetMonColumns.DOWNLOAD_SPEED + " ON "
+            + NetMonColumns.TABLE_NAME + "(" + NetMonColumns.DOWNLOAD_SPEED + ")";
+
+    private static final String SQL_CREATE_INDEX_NETWORKMONITOR_UPLOAD_SPEED = "CREATE INDEX IF NOT EXISTS "
+            + NetMonColumns.TABLE_NAME + "_" + NetMonColumns.UPLOAD_SPEED + " ON "
+            + NetMonColumns.TABLE_NAME + "(" + NetMonColumns.UPLOAD_SPEED + ")";
+
+    private static final String SQL_CREATE_TABLE_PROBE_RESULTS = "CREATE TABLE IF NOT EXISTS "
+            + ProbeResultColumns.TABLE_NAME + " ( "
+            + ProbeResultColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + ProbeResultColumns.SAMPLE_ID + " INTEGER, "
+            + ProbeResultColumns.TARGET + " TEXT, "
+            + ProbeResultColumns.RESULT + " TEXT, "
+            + ProbeResultColumns.CONNECT_TIME + " INTEGER, "
+            + ProbeResultColumns.ERROR + " TEXT)";
+
+    private static final String SQL_CREATE_INDEX_PROBE_RESULTS_SAMPLE_ID = "CREATE INDEX IF NOT EXISTS "
+            + ProbeResultColumns.TABLE_NAME + "_" + ProbeResultColumns.SAMPLE_ID + " ON "
+            + ProbeResultColumns.TABLE_NAME + "(" + ProbeResultColumns.SAMPLE_ID + ")";
+
+    // The probe results go away with their sample, whether it's purged, compressed, or replaced by an import.
+    private static final String SQL_CREATE_TRIGGER_DELETE_PROBE_RESULTS = "CREATE TRIGGER IF NOT EXISTS "
+            + ProbeResultColumns.TABLE_NAME + "_delete AFTER DELETE ON " + NetMonColumns.TABLE_NAME
+            + " BEGIN DELETE FROM " + ProbeResultColumns.TABLE_NAME
+            + " WHERE " + ProbeResultColumns.SAMPLE_ID + " = old." + NetMonColumns._ID + "; END";
+
     private static final String SQL_CREATE_VIEW_CONNECTION_TEST_STATS = "CREATE VIEW " + ConnectionTestStatsColumns.VIEW_NAME + " AS "
             + buildConnectionTestQuery();
 
@@ -229,7 +405,9 @@ public class NetMonDatabase extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         Log.d(TAG, "onCreate");
         db.execSQL(SQL_CREATE_TABLE_NETWORKMONITOR);
+        createSpeedIndexes(db);
         db.execSQL(SQL_CREATE_VIEW_CONNECTION_TEST_STATS);
+        createProbeResultsTable(db);
     }
 
     @SuppressWarnings("ConstantConditions") // It's not THAT hard to analyze...
@@ -315,6 +493,84 @@ public class NetMonDatabase extends SQLiteOpenHelper {
             db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V18_LTE_CELL_PCI);
             db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V18_LTE_CELL_TAC);
         }
+
+        if (oldVersion < 19) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V19_SOCKET_DNS_TIME);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V19_SOCKET_CONNECT_TIME);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V19_SOCKET_FIRST_BYTE_TIME);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_DNS_TIME);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_CONNECT_TIME);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_TLS_TIME);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V19_HTTP_FIRST_BYTE_TIME);
+        }
+
+        if (oldVersion < 20) createProbeResultsTable(db);
+
+        if (oldVersion < 21) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V21_DNS_TEST);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V21_DNS_TIME);
+        }
+
+        if (oldVersion < 22) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_RTT_MIN);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_RTT_AVG);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_RTT_MAX);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_JITTER);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V22_UDP_LOSS);
+        }
+
+        if (oldVersion < 23) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V23_OUTAGE_START);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V23_OUTAGE_END);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V23_OUTAGE_DURATION);
+        }
+
+        if (oldVersion < 24) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V24_DOWNLOAD_SPEED_P10);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V24_DOWNLOAD_SPEED_P50);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V24_DOWNLOAD_SPEED_P90);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V24_UPLOAD_SPEED_P10);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V24_UPLOAD_SPEED_P50);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V24_UPLOAD_SPEED_P90);
+        }
+
+        if (oldVersion < 25) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_IDLE_RTT);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_LOADED_RTT_P50);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_LOADED_RTT_P95);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_DOWNLOAD_BUFFERBLOAT_RATIO);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_IDLE_RTT);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_LOADED_RTT_P50);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_LOADED_RTT_P95);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V25_UPLOAD_BUFFERBLOAT_RATIO);
+            createSpeedIndexes(db);
+        }
+
+        if (oldVersion < 26) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V26_DOWNLOAD_BYTE_COUNT_METHOD);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V26_UPLOAD_BYTE_COUNT_METHOD);
+        }
+
+        if (oldVersion < 27) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V27_SCHEDULE_LATENESS);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V27_SKIPPED_TICKS);
+        }
+
+        if (oldVersion < 28) {
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V28_REQUESTED_INTERVAL);
+            db.execSQL(SQL_UPDATE_TABLE_NETWORKMONITOR_V28_ACHIEVED_INTERVAL);
+        }
+    }
+
+    private static void createSpeedIndexes(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_INDEX_NETWORKMONITOR_DOWNLOAD_SPEED);
+        db.execSQL(SQL_CREATE_INDEX_NETWORKMONITOR_UPLOAD_SPEED);
+    }
+
+    private static void createProbeResultsTable(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_TABLE_PROBE_RESULTS);
+        db.execSQL(SQL_CREATE_INDEX_PROBE_RESULTS_SAMPLE_ID);
+        db.execSQL(SQL_CREATE_TRIGGER_DELETE_PROBE_RESULTS);
     }
 
     /**
@@ -71,6 +71,7 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
     private static final int URI_TYPE_NETWORKMONITOR_ID = 1;
     private static final int URI_TYPE_SUMMARY = 2;
     private static final int URI_TYPE_UNIQUE_VALUES_ID = 3;
+    private static final int URI_TYPE_PROBE_RESULTS = 4;
 
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
     private Context mContext;
@@ -80,9 +81,12 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
         URI_MATCHER.addURI(AUTHORITY, NetMonColumns.TABLE_NAME + "/#", URI_TYPE_NETWORKMONITOR_ID);
         URI_MATCHER.addURI(AUTHORITY, ConnectionTestStatsColumns.VIEW_NAME, URI_TYPE_SUMMARY);
         URI_MATCHER.addURI(AUTHORITY, UniqueValuesColumns.NAME + "/*", URI_TYPE_UNIQUE_VALUES_ID);
+        URI_MATCHER.addURI(AUTHORITY, ProbeResultColumns.TABLE_NAME, URI_TYPE_PROBE_RESULTS);
     }
 
     private NetMonDatabase mNetworkMonitorDatabase;
+    // True on the thread applying a batch: it notifies the uris once, at the end of the batch, rather than after each row.
+    private final ThreadLocal<Boolean> mIsApplyingBatch = new ThreadLocal<>();
 
     @Override
     public boolean onCreate() {
@@ -107,19 +111,24 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
                 return TYPE_CURSOR_ITEM + NetMonColumns.TABLE_NAME;
             case URI_TYPE_UNIQUE_VALUES_ID:
                 return TYPE_CURSOR_DIR + UniqueValuesColumns.NAME;
+            case URI_TYPE_PROBE_RESULTS:
+                return TYPE_CURSOR_DIR + ProbeResultColumns.TABLE_NAME;
         }
         return null;
     }
 
+    /**
+     * @return the uri of the new row, or null if the row couldn't be inserted.  In a batch, a failed insert makes
+     * {@link ContentProviderOperation#apply} throw an {@link OperationApplicationException}, which rolls back the whole batch,
+     * rather than giving the next operations -1 as a back reference.
+     */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
         Log.d(TAG, "insert uri=" + uri + " values=" + values);
         final String table = uri.getLastPathSegment();
         final long rowId = mNetworkMonitorDatabase.getWritableDatabase().insert(table, null, values);
-        String notify;
-        if (rowId != -1 && ((notify = uri.getQueryParameter(QUERY_PARAMETER_NOTIFY)) == null || "true".equals(notify))) {
-            mContext.getContentResolver().notifyChange(uri, null);
-        }
+        if (rowId == -1) return null;
+        if (shouldNotify(uri)) mContext.getContentResolver().notifyChange(uri, null);
         return uri.buildUpon().appendEncodedPath(String.valueOf(rowId)).build();
     }
 
@@ -141,10 +150,7 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
         } finally {
             db.endTransaction();
         }
-        String notify;
-        if (res != 0 && ((notify = uri.getQueryParameter(QUERY_PARAMETER_NOTIFY)) == null || "true".equals(notify))) {
-            mContext.getContentResolver().notifyChange(uri, null);
-        }
+        if (res != 0 && shouldNotify(uri)) mContext.getContentResolver().notifyChange(uri, null);
 
         return res;
     }
@@ -154,10 +160,7 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
         Log.d(TAG, "update uri=" + uri + " values=" + values + " selection=" + selection);
         final QueryParams queryParams = getQueryParams(uri, selection);
         final int res = mNetworkMonitorDatabase.getWritableDatabase().update(queryParams.table, values, queryParams.whereClause, selectionArgs);
-        String notify;
-        if (res != 0 && ((notify = uri.getQueryParameter(QUERY_PARAMETER_NOTIFY)) == null || "true".equals(notify))) {
-            mContext.getContentResolver().notifyChange(uri, null);
-        }
+        if (res != 0 && shouldNotify(uri)) mContext.getContentResolver().notifyChange(uri, null);
         return res;
     }
 
@@ -166,10 +169,7 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
         Log.d(TAG, "delete uri=" + uri + " selection=" + selection);
         final QueryParams queryParams = getQueryParams(uri, selection);
         final int res = mNetworkMonitorDatabase.getWritableDatabase().delete(queryParams.table, queryParams.whereClause, selectionArgs);
-        String notify;
-        if (res != 0 && ((notify = uri.getQueryParameter(QUERY_PARAMETER_NOTIFY)) == null || "true".equals(notify))) {
-            mContext.getContentResolver().notifyChange(uri, null);
-        }
+        if (res != 0 && shouldNotify(uri)) mContext.getContentResolver().notifyChange(uri, null);
         return res;
     }
 
@@ -186,6 +186,7 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
         switch (matchedId) {
             case URI_TYPE_NETWORKMONITOR:
             case URI_TYPE_NETWORKMONITOR_ID:
+            case URI_TYPE_PROBE_RESULTS:
 
                 final QueryParams queryParams = getQueryParams(uri, selection);
                 res = mNetworkMonitorDatabase.getReadableDatabase().query(queryParams.table, projection, queryParams.whereClause, selectionArgs, groupBy, null,
@@ -216,6 +217,7 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
 
     /**
      * Perform all operations in a single transaction and notify all relevant URIs at the end.
+     * Back references may point to any earlier operation of the whole list.
      *
      * @see android.content.ContentProvider#applyBatch(java.util.ArrayList)
      */
@@ -228,28 +230,35 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
         Log.v(TAG, "applyBatch: will notify these uris after persisting: " + urisToNotify);
         SQLiteDatabase db = mNetworkMonitorDatabase.getWritableDatabase();
         db.beginTransaction();
+        mIsApplyingBatch.set(true);
         try {
             int batchSize = 100;
-            int operationsProcessed = 0;
             ContentProviderResult[] result = new ContentProviderResult[operations.size()];
-            while (!operations.isEmpty()) {
-                ArrayList<ContentProviderOperation> batch = new ArrayList<>(batchSize);
-                for (int i = 0; i < batchSize && !operations.isEmpty(); i++)
-                    batch.add(operations.remove(0));
-                Log.v(TAG, "applyBatch of " + batch.size() + " operations");
-                ContentProviderResult[] batchResult = super.applyBatch(batch);
-                System.arraycopy(batchResult, 0, result, operationsProcessed, batchResult.length);
-                operationsProcessed += batch.size();
+            // Apply the operations ourselves rather than in chunks with super.applyBatch(), so that
+            // a back reference can point to a result from an earlier chunk.
+            for (int i = 0; i < operations.size(); i++) {
+                if (i % batchSize == 0) Log.v(TAG, "applyBatch: applied " + i + " operations");
+                result[i] = operations.get(i).apply(this, result, i);
             }
             db.setTransactionSuccessful();
             for (Uri uri : urisToNotify)
                 mContext.getContentResolver().notifyChange(uri, null);
             return result;
         } finally {
+            mIsApplyingBatch.remove();
             db.endTransaction();
         }
     }
 
+    /**
+     * @return false if the caller asked not to notify the uri, or if we're applying a batch, which notifies its uris at the end.
+     */
+    private boolean shouldNotify(Uri uri) {
+        if (Boolean.TRUE.equals(mIsApplyingBatch.get())) return false;
+        String notify = uri.getQueryParameter(QUERY_PARAMETER_NOTIFY);
+        return notify == null || "true".equals(notify);
+    }
+
     private static class QueryParams {
         public String table;
         public String whereClause;
@@ -267,6 +276,10 @@ public class NetMonProvider extends ContentProvider { // NO_UCD (use default)
                 res.table = NetMonColumns.TABLE_NAME;
                 res.orderBy = NetMonColumns.DEFAULT_ORDER;
                 break;
+            case URI_TYPE_PROBE_RESULTS:
+                res.table = ProbeResultColumns.TABLE_NAME;
+                res.orderBy = ProbeResultColumns.DEFAULT_ORDER;
+                break;
             case URI_TYPE_SUMMARY:
                 // Nothing to do here.  We will construct our query params in query().
                 break;
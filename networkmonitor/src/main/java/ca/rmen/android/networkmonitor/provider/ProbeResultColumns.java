@@ -0,0 +1,61 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.provider;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * The result of probing one target, for one row of the {@link NetMonColumns} table.
+ */
+public class ProbeResultColumns implements BaseColumns {
+    public static final String TABLE_NAME = "probe_results";
+    public static final Uri CONTENT_URI = Uri.parse(NetMonProvider.CONTENT_URI_BASE + "/" + TABLE_NAME);
+    static final String DEFAULT_ORDER = _ID;
+
+    /**
+     * The {@link NetMonColumns#_ID} of the row this result belongs to.
+     */
+    public static final String SAMPLE_ID = "sample_id";
+
+    /**
+     * The host:port which was probed.
+     */
+    public static final String TARGET = "target";
+
+    /**
+     * PASS, FAIL, or SLOW.
+     */
+    public static final String RESULT = "result";
+
+    /**
+     * Time, in ms, to establish the TCP connection. Null if the connection failed.
+     */
+    public static final String CONNECT_TIME = "connect_time";
+
+    /**
+     * Why the probe failed, if it did.
+     */
+    public static final String ERROR = "error";
+}
@@ -34,6 +34,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Selector;
 
 import ca.rmen.android.networkmonitor.Constants;
 
@@ -58,6 +59,20 @@ public class IoUtil {
         }
     }
 
+    /**
+     * Silently close the given {@link Selector}, ignoring any {@link IOException}.<br/> {@code null} is ignored.
+     * Older Android versions don't declare {@link Selector} as {@link Closeable}.
+     */
+    public static void closeSilently(Selector selector) {
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
     /**
      * Copy the contents of the given {@link InputStream} into the given {@link OutputStream}.<br/>
      * Note: the given {@link InputStream} and {@link OutputStream} won't be closed.
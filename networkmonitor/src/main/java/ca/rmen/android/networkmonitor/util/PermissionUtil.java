@@ -46,6 +46,10 @@ public class PermissionUtil {
         return isPermissionGranted(context, Manifest.permission.READ_PHONE_STATE);
     }
 
+    public static boolean hasLocationPermission(Context context) {
+        return isPermissionGranted(context, Manifest.permission.ACCESS_FINE_LOCATION);
+    }
+
     @TargetApi(Build.VERSION_CODES.M)
     public static boolean hasUsageStatsPermission(Context context) {
         AppOpsManager appOps = (AppOpsManager)
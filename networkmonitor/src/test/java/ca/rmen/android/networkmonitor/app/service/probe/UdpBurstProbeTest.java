@@ -0,0 +1,122 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.probe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UdpBurstProbeTest {
+    private static final double DELTA = 0.001;
+
+    private UdpEchoServer mEchoServer;
+    private final UdpBurstProbe mProbe = new UdpBurstProbe();
+
+    @Before
+    public void setUp() throws IOException {
+        mEchoServer = new UdpEchoServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mEchoServer.close();
+    }
+
+    @Test
+    public void testRtt() throws IOException {
+        mEchoServer.setDelay(50);
+        UdpBurstProbe.Result result = mProbe.probe(mEchoServer.getAddress(), 10);
+        assertEquals(10, result.sent);
+        assertEquals(10, result.received);
+        assertEquals(0, result.lossPercent, DELTA);
+        assertTrue("min rtt " + result.minRtt, result.minRtt >= 50);
+        assertTrue("avg rtt " + result.avgRtt, result.avgRtt >= result.minRtt && result.avgRtt <= result.maxRtt);
+        // The replies are delayed independently: the delays of consecutive packets don't add up.
+        assertTrue("max rtt " + result.maxRtt, result.maxRtt < 500);
+        assertTrue("jitter " + result.jitter, result.jitter >= 0 && result.jitter <= result.maxRtt - result.minRtt);
+    }
+
+    @Test
+    public void testLoss() throws IOException {
+        mEchoServer.drop(1, 3);
+        UdpBurstProbe.Result result = mProbe.probe(mEchoServer.getAddress(), 10);
+        assertEquals(10, result.sent);
+        assertEquals(8, result.received);
+        assertEquals(20, result.lossPercent, DELTA);
+    }
+
+    @Test
+    public void testAllLost() throws IOException {
+        mEchoServer.drop(0, 1, 2, 3, 4);
+        UdpBurstProbe.Result result = mProbe.probe(mEchoServer.getAddress(), 5);
+        assertEquals(5, result.sent);
+        assertEquals(0, result.received);
+        assertEquals(100, result.lossPercent, DELTA);
+        assertTrue(Double.isNaN(result.avgRtt));
+    }
+
+    @Test
+    public void testReordering() throws IOException {
+        mEchoServer.setReordering(true);
+        UdpBurstProbe.Result result = mProbe.probe(mEchoServer.getAddress(), 10);
+        assertEquals(10, result.sent);
+        assertEquals(10, result.received);
+        assertEquals(0, result.lossPercent, DELTA);
+        // Each even packet waited for the next packet, which was sent 20ms after it.
+        assertTrue("max rtt " + result.maxRtt, result.maxRtt >= 15);
+    }
+
+    @Test
+    public void testSeveralBursts() throws IOException {
+        mEchoServer.drop(2);
+        assertEquals(5, mProbe.probe(mEchoServer.getAddress(), 5).sent);
+        // The buffers are reused: the results of the previous burst must not leak into this one.
+        UdpBurstProbe.Result result = mProbe.probe(mEchoServer.getAddress(), 3);
+        assertEquals(3, result.sent);
+        assertEquals(2, result.received);
+    }
+
+    @Test
+    public void testAbortedBurst() throws IOException {
+        // Find a port on which nothing listens.
+        InetSocketAddress closedPort;
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            closedPort = (InetSocketAddress) channel.getLocalAddress();
+        }
+        UdpBurstProbe.Result result = mProbe.probe(closedPort, 50);
+        // The burst stops at the first PortUnreachableException: only the packets we sent are lost.
+        assertTrue("sent " + result.sent, result.sent > 0 && result.sent < 50);
+        assertEquals(0, result.received);
+        assertEquals(100, result.lossPercent, DELTA);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.service.probe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A UDP echo server on the loopback interface, which sends back the packets of a {@link UdpBurstProbe}.
+ * <p>
+ * It can simulate a slow network (every reply is delayed), loss (some packets are never sent back), and reordering (every packet with an
+ * even sequence number is held until the next packet arrives, and sent back after it).
+ */
+class UdpEchoServer implements Closeable {
+    // The sequence number follows the magic number, in the packets of the probe.
+    private static final int SEQUENCE_OFFSET = 4;
+
+    private final DatagramChannel mChannel;
+    private final ScheduledExecutorService mReplyExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Thread mReceiveThread;
+    private final Set<Integer> mDroppedSequences = Collections.synchronizedSet(new HashSet<>());
+    private volatile long mDelayMs;
+    private volatile boolean mIsReordering;
+
+    // Only used by the receive thread.
+    private ByteBuffer mHeldPacket;
+    private SocketAddress mHeldPacketSender;
+
+    UdpEchoServer() throws IOException {
+        mChannel = DatagramChannel.open();
+        mChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        mReceiveThread = new Thread(this::receive, UdpEchoServer.class.getSimpleName());
+        mReceiveThread.start();
+    }
+
+    InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) mChannel.getLocalAddress();
+    }
+
+    void setDelay(long delayMs) {
+        mDelayMs = delayMs;
+    }
+
+    void drop(int... sequences) {
+        for (int sequence : sequences) mDroppedSequences.add(sequence);
+    }
+
+    void setReordering(boolean isReordering) {
+        mIsReordering = isReordering;
+    }
+
+    private void receive() {
+        try {
+            while (true) {
+                ByteBuffer packet = ByteBuffer.allocate(64);
+                SocketAddress sender = mChannel.receive(packet);
+                packet.flip();
+                int sequence = packet.remaining() >= SEQUENCE_OFFSET + 4 ? packet.getInt(SEQUENCE_OFFSET) : -1;
+                if (mDroppedSequences.contains(sequence)) continue;
+                if (mIsReordering && mHeldPacket == null && sequence % 2 == 0) {
+                    mHeldPacket = packet;
+                    mHeldPacketSender = sender;
+                    continue;
+                }
+                reply(packet, sender);
+                if (mHeldPacket != null) {
+                    reply(mHeldPacket, mHeldPacketSender);
+                    mHeldPacket = null;
+                }
+            }
+        } catch (IOException e) {
+            // The server was closed.
+        }
+    }
+
+    private void reply(ByteBuffer packet, SocketAddress destination) {
+        try {
+            // Schedule each reply on its own, so that the delays of consecutive packets don't add up.
+            mReplyExecutor.schedule(() -> {
+                try {
+                    mChannel.send(packet, destination);
+                } catch (IOException e) {
+                    // The server was closed.
+                }
+            }, mDelayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The server was closed.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+        mReplyExecutor.shutdownNow();
+        try {
+            mReceiveThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An HTTP server on the loopback interface, which reads the body of each POST, chunked or not, and replies with a fixed status code.
+ */
+class HttpSink implements Closeable {
+    private final ServerSocket mServerSocket;
+    private final int mResponseCode;
+    private final Thread mAcceptThread;
+    // The number of bytes in the body of each request.
+    private final List<Long> mBodyBytes = Collections.synchronizedList(new ArrayList<>());
+
+    HttpSink(int responseCode) throws IOException {
+        mResponseCode = responseCode;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        mAcceptThread = new Thread(this::accept, HttpSink.class.getSimpleName());
+        mAcceptThread.start();
+    }
+
+    String getUrl() {
+        return "http://" + mServerSocket.getInetAddress().getHostAddress() + ":" + mServerSocket.getLocalPort() + "/upload";
+    }
+
+    /**
+     * @return the number of bytes in the body of each request received so far.
+     */
+    List<Long> getBodyBytes() {
+        synchronized (mBodyBytes) {
+            return new ArrayList<>(mBodyBytes);
+        }
+    }
+
+    long getTotalBodyBytes() {
+        long total = 0;
+        for (long bytes : getBodyBytes()) total += bytes;
+        return total;
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = mServerSocket.accept();
+                new Thread(() -> handle(socket)).start();
+            }
+        } catch (IOException e) {
+            // The server was closed.
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket ignored = socket) {
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            readLine(inputStream); // the request line
+            long contentLength = -1;
+            boolean isChunked = false;
+            String header;
+            while (!(header = readLine(inputStream)).isEmpty()) {
+                String lowerCaseHeader = header.toLowerCase(Locale.US);
+                if (lowerCaseHeader.startsWith("content-length:")) contentLength = Long.parseLong(header.substring(15).trim());
+                else if (lowerCaseHeader.startsWith("transfer-encoding:") && lowerCaseHeader.contains("chunked")) isChunked = true;
+            }
+            long bodyBytes = isChunked ? readChunkedBody(inputStream) : skip(inputStream, Math.max(0, contentLength));
+            mBodyBytes.add(bodyBytes);
+            OutputStream outputStream = socket.getOutputStream();
+            outputStream.write(("HTTP/1.1 " + mResponseCode + " Status\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            outputStream.flush();
+        } catch (IOException e) {
+            // The client went away.
+        }
+    }
+
+    private static long readChunkedBody(InputStream inputStream) throws IOException {
+        long total = 0;
+        while (true) {
+            String chunkSize = readLine(inputStream);
+            int extension = chunkSize.indexOf(';');
+            long size = Long.parseLong((extension >= 0 ? chunkSize.substring(0, extension) : chunkSize).trim(), 16);
+            if (size == 0) break;
+            total += skip(inputStream, size);
+            readLine(inputStream); // the CRLF after the chunk
+        }
+        // The trailers, if any, end with an empty line.
+        while (!readLine(inputStream).isEmpty()) ;
+        return total;
+    }
+
+    private static long skip(InputStream inputStream, long count) throws IOException {
+        byte[] buffer = new byte[8192];
+        long skipped = 0;
+        while (skipped < count) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+            if (read < 0) throw new IOException("Unexpected end of the body");
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) != '\n') {
+            if (b < 0) throw new IOException("Unexpected end of the request");
+            if (b != '\r') line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+        try {
+            mAcceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelTransferTest {
+
+    @Test
+    public void testAggregation() {
+        int[] streamBytes = {1000, 2000, 3000};
+        int[] nextStream = {0};
+        SpeedTestResult result = ParallelTransfer.run(ParallelTransfer.Direction.UPLOAD, 3, 0, 0, null, recorder -> {
+            int bytes;
+            synchronized (nextStream) {
+                bytes = streamBytes[nextStream[0]++];
+            }
+            recorder.onBytesTransferred(bytes);
+            return new SpeedTestResult(0, bytes, 10, SpeedTestStatus.SUCCESS);
+        });
+        assertEquals(SpeedTestStatus.SUCCESS, result.status);
+        assertEquals(3, result.streamResults.size());
+        assertEquals(6000, result.fileBytes);
+    }
+
+    @Test
+    public void testOneStreamFailed() {
+        int[] nextStream = {0};
+        SpeedTestResult result = ParallelTransfer.run(ParallelTransfer.Direction.UPLOAD, 2, 0, 0, null, recorder -> {
+            boolean isFirst;
+            synchronized (nextStream) {
+                isFirst = nextStream[0]++ == 0;
+            }
+            return new SpeedTestResult(0, 1000, 10, isFirst ? SpeedTestStatus.SUCCESS : SpeedTestStatus.AUTH_FAILURE);
+        });
+        // The speed of the other connection alone isn't reliable.
+        assertEquals(SpeedTestStatus.AUTH_FAILURE, result.status);
+        assertEquals(0, result.totalBytes);
+        assertEquals(2000, result.fileBytes);
+    }
+
+    @Test
+    public void testDurationStartsWithTheFirstBytes() {
+        long connectTime = 500;
+        long duration = 500;
+        AtomicInteger transferStartCount = new AtomicInteger();
+        AtomicLong transferStart = new AtomicLong();
+        long before = System.currentTimeMillis();
+        SpeedTestResult result = ParallelTransfer.run(ParallelTransfer.Direction.UPLOAD, 2, duration, 0,
+                () -> {
+                    transferStartCount.incrementAndGet();
+                    transferStart.set(System.currentTimeMillis());
+                }, recorder -> {
+            long bytes = 0;
+            try {
+                // Opening the connection doesn't count towards the duration of the test.
+                Thread.sleep(connectTime);
+                while (!recorder.isDone()) {
+                    recorder.onBytesTransferred(1000);
+                    bytes += 1000;
+                    Thread.sleep(10);
+                }
+            } catch (InterruptedException e) {
+                return new SpeedTestResult(0, bytes, 0, SpeedTestStatus.FAILURE);
+            }
+            return new SpeedTestResult(0, bytes, connectTime + duration, SpeedTestStatus.SUCCESS);
+        });
+        assertEquals(SpeedTestStatus.SUCCESS, result.status);
+        assertTrue("transfer time " + result.transferTime, result.transferTime >= connectTime + duration);
+        // The listener is called once, when the first connection sends its first bytes.
+        assertEquals(1, transferStartCount.get());
+        assertTrue("transfer start " + (transferStart.get() - before), transferStart.get() - before >= connectTime);
+        // Only the intervals after the first bytes are recorded.
+        assertTrue("intervals " + result.intervalSpeeds.length, result.intervalSpeeds.length <= duration / ThroughputRecorder.INTERVAL_MS + 1);
+    }
+
+    @Test
+    public void testMaxBytes() {
+        SpeedTestResult result = ParallelTransfer.run(ParallelTransfer.Direction.UPLOAD, 4, 0, 100000, null, recorder -> {
+            long bytes = 0;
+            while (!recorder.isDone()) {
+                recorder.onBytesTransferred(1000);
+                bytes += 1000;
+            }
+            return new SpeedTestResult(0, bytes, 10, SpeedTestStatus.SUCCESS);
+        });
+        // Each connection may add one more block after the others reached the maximum.
+        assertTrue("transferred " + result.fileBytes, result.fileBytes >= 100000 && result.fileBytes < 100000 + 4 * 1000);
+    }
+}
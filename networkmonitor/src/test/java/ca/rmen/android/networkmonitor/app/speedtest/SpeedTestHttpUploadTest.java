@@ -0,0 +1,141 @@
+/*
+ * This source is part of the
+ *      _____  ___   ____
+ *  __ / / _ \/ _ | / __/___  _______ _
+ * / // / , _/ __ |/ _/_/ _ \/ __/ _ `/
+ * \___/_/|_/_/ |_/_/ (_)___/_/  \_, /
+ *                              /___/
+ * repository.
+ *
+ * Copyright (C) 2020 Carmen Alvarez (c@rmen.ca)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.rmen.android.networkmonitor.app.speedtest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.ByteCountMethod;
+import ca.rmen.android.networkmonitor.app.speedtest.SpeedTestResult.SpeedTestStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpeedTestHttpUploadTest {
+    // Not a multiple of the size of the buffer we send, so the last write of each connection is partial.
+    private static final long FILE_BYTES = 150000;
+
+    private HttpSink mSink;
+    private File mFile;
+
+    @After
+    public void tearDown() throws IOException {
+        if (mSink != null) mSink.close();
+        if (mFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            mFile.delete();
+        }
+    }
+
+    @Test
+    public void testByteCount() throws IOException {
+        mSink = new HttpSink(HttpURLConnection.HTTP_OK);
+        SpeedTestResult result = SpeedTestHttpUpload.upload(createConfig(1, 0, 0), null);
+        assertEquals(SpeedTestStatus.SUCCESS, result.status);
+        assertEquals(FILE_BYTES, result.fileBytes);
+        assertEquals(Arrays.asList(FILE_BYTES), mSink.getBodyBytes());
+        // The unit tests don't have the traffic counters of the device.
+        assertEquals(ByteCountMethod.PAYLOAD, result.getByteCountMethod());
+        assertTrue(result.getSpeedMbps() > 0);
+    }
+
+    @Test
+    public void testAuthFailure() throws IOException {
+        mSink = new HttpSink(HttpURLConnection.HTTP_UNAUTHORIZED);
+        SpeedTestResult result = SpeedTestHttpUpload.upload(createConfig(1, 0, 0), null);
+        assertEquals(SpeedTestStatus.AUTH_FAILURE, result.status);
+        assertEquals(0, result.totalBytes);
+    }
+
+    @Test
+    public void testForbidden() throws IOException {
+        mSink = new HttpSink(HttpURLConnection.HTTP_FORBIDDEN);
+        assertEquals(SpeedTestStatus.AUTH_FAILURE, SpeedTestHttpUpload.upload(createConfig(1, 0, 0), null).status);
+    }
+
+    @Test
+    public void testServerError() throws IOException {
+        mSink = new HttpSink(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        assertEquals(SpeedTestStatus.FAILURE, SpeedTestHttpUpload.upload(createConfig(1, 0, 0), null).status);
+    }
+
+    @Test
+    public void testSeveralStreams() throws IOException {
+        mSink = new HttpSink(HttpURLConnection.HTTP_OK);
+        SpeedTestResult result = SpeedTestHttpUpload.upload(createConfig(3, 0, 0), null);
+        assertEquals(SpeedTestStatus.SUCCESS, result.status);
+        // Each connection sends the whole file.
+        assertEquals(3, result.streamResults.size());
+        for (SpeedTestResult streamResult : result.streamResults) {
+            assertEquals(SpeedTestStatus.SUCCESS, streamResult.status);
+            assertEquals(FILE_BYTES, streamResult.fileBytes);
+        }
+        assertEquals(3 * FILE_BYTES, result.fileBytes);
+        assertEquals(Arrays.asList(FILE_BYTES, FILE_BYTES, FILE_BYTES), mSink.getBodyBytes());
+    }
+
+    @Test
+    public void testMaxBytes() throws IOException {
+        mSink = new HttpSink(HttpURLConnection.HTTP_OK);
+        long maxBytes = 1000000;
+        SpeedTestResult result = SpeedTestHttpUpload.upload(createConfig(2, 0, maxBytes), null);
+        assertEquals(SpeedTestStatus.SUCCESS, result.status);
+        // Each connection may send one more buffer after the other one reached the maximum.
+        assertTrue("sent " + result.fileBytes, result.fileBytes >= maxBytes && result.fileBytes < maxBytes + 2 * 65536);
+        assertEquals(result.fileBytes, mSink.getTotalBodyBytes());
+    }
+
+    @Test
+    public void testDuration() throws IOException {
+        mSink = new HttpSink(HttpURLConnection.HTTP_OK);
+        long duration = 1000;
+        SpeedTestResult result = SpeedTestHttpUpload.upload(createConfig(2, duration, 0), null);
+        assertEquals(SpeedTestStatus.SUCCESS, result.status);
+        // The recorder stops the connections once the duration has passed, even though they could send much more.
+        assertTrue("transfer time " + result.transferTime, result.transferTime >= duration && result.transferTime < 4 * duration);
+        assertTrue(result.fileBytes > 0);
+        assertEquals(result.fileBytes, mSink.getTotalBodyBytes());
+        assertTrue(result.intervalSpeeds.length >= duration / ThroughputRecorder.INTERVAL_MS - 1);
+    }
+
+    @Test
+    public void testInvalidUrl() {
+        SpeedTestUploadConfig config = new SpeedTestUploadConfig(null, 0, null, null, null, new File("none"), "ftp://localhost/upload", 1, 0, 0);
+        assertEquals(SpeedTestStatus.INVALID_FILE, SpeedTestHttpUpload.upload(config, null).status);
+    }
+
+    private SpeedTestUploadConfig createConfig(int streams, long duration, long maxBytes) throws IOException {
+        mFile = File.createTempFile("upload", null);
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            file.setLength(FILE_BYTES);
+        }
+        return new SpeedTestUploadConfig(null, 0, null, null, null, mFile, mSink.getUrl(), streams, duration, maxBytes);
+    }
+}